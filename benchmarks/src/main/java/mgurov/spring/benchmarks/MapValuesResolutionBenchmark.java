@@ -0,0 +1,86 @@
+package mgurov.spring.benchmarks;
+
+import mgurov.spring.MapUtils;
+import mgurov.spring.MapValuesResolutionAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.profile.GCProfiler;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MapUtils#resolveValues(MapValuesResolutionAlgorithm, Map)} for every algorithm over the maps produced by
+ * {@link PropertyMapGenerator}. Throughput and sampled latency (percentiles) are reported by the benchmark modes, the
+ * allocation rate comes from the GC profiler which {@link #main(String[])} switches on.
+ * <br/>
+ * The returned map is fully consumed as some algorithms (e.g. BUILD_TREE) do stringify the values lazily.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MapValuesResolutionBenchmark {
+
+    @Param
+    private MapValuesResolutionAlgorithm algorithm;
+
+    @Param({"1000", "20000"})
+    private int keyCount;
+
+    @Param({"2", "6"})
+    private int depth;
+
+    @Param({"1", "3"})
+    private int fanOut;
+
+    @Param({"0.0", "0.9"})
+    private double keyReuse;
+
+    @Param({"0.0", "0.2"})
+    private double unresolvedShare;
+
+    private Map<String, String> input;
+
+    @Setup
+    public void generateInput() {
+        input = new PropertyMapGenerator(keyCount, depth, fanOut, keyReuse, unresolvedShare).generate();
+    }
+
+    @Benchmark
+    public void resolveValues(Blackhole blackhole) {
+        for (Map.Entry<String, String> entry : MapUtils.resolveValues(algorithm, input).entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler on, accepts the usual JMH command line options, e.g.
+     * {@code -p keyCount=200000 -p algorithm=BUILD_TREE}
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(MapValuesResolutionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,135 @@
+package mgurov.spring.benchmarks;
+
+import mgurov.spring.MapValuesResolutionAlgorithm;
+import mgurov.spring.ResolvingPlaceholderConfigurer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Compares the startup cost of the placeholder substitution, i.e. the post processing of a bean factory holding thousands of
+ * bean definitions with placeholders in their values, by Spring's PropertyPlaceholderConfigurer resolving the placeholders
+ * of the properties again for every bean definition value against the {@link ResolvingPlaceholderConfigurer} resolving the
+ * properties once. Both load the same property file generated by {@link PropertyMapGenerator} on every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PlaceholderConfigurerBenchmark {
+
+    private static final int VALUES_PER_BEAN = 4;
+
+    @Param({"1000", "10000"})
+    private int beanCount;
+
+    @Param({"10000"})
+    private int keyCount;
+
+    @Param({"TOPOLOGICAL"})
+    private MapValuesResolutionAlgorithm algorithm;
+
+    private File file;
+    private List<String> keys;
+    private DefaultListableBeanFactory beanFactory;
+
+    @Setup
+    public void writeFile() throws IOException {
+        final Properties properties = new Properties();
+        properties.putAll(new PropertyMapGenerator(keyCount, 4, 2, 0.5, 0.1).generate());
+        keys = newArrayList(properties.stringPropertyNames());
+        Collections.sort(keys);
+        file = File.createTempFile("benchmark", ".properties");
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            properties.store(os, "generated by " + getClass().getSimpleName());
+        } finally {
+            os.close();
+        }
+    }
+
+    @TearDown
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * The configurers modify the bean definitions in place, hence a fresh bean factory for every invocation.
+     */
+    @Setup(Level.Invocation)
+    public void registerBeanDefinitions() {
+        final Random random = new Random(beanCount);
+        beanFactory = new DefaultListableBeanFactory();
+        for (int i = 0; i < beanCount; i++) {
+            final MutablePropertyValues values = new MutablePropertyValues();
+            for (int v = 0; v < VALUES_PER_BEAN; v++) {
+                values.add("value" + v, "bean " + i + " uses ${" + keys.get(random.nextInt(keys.size())) + "}");
+            }
+            values.add("literal", "no placeholders in bean " + i);
+            final RootBeanDefinition definition = new RootBeanDefinition(Object.class);
+            definition.setPropertyValues(values);
+            beanFactory.registerBeanDefinition("bean" + i, definition);
+        }
+    }
+
+    @Benchmark
+    public DefaultListableBeanFactory propertyPlaceholderConfigurer() {
+        final PropertyPlaceholderConfigurer configurer = new PropertyPlaceholderConfigurer();
+        configurer.setLocation(new FileSystemResource(file));
+        configurer.setIgnoreUnresolvablePlaceholders(true);
+        configurer.postProcessBeanFactory(beanFactory);
+        return beanFactory;
+    }
+
+    @Benchmark
+    public DefaultListableBeanFactory resolvingPlaceholderConfigurer() {
+        final ResolvingPlaceholderConfigurer configurer = new ResolvingPlaceholderConfigurer();
+        configurer.setPropertyLocations(Collections.singletonList(file.toURI().toString()));
+        configurer.setAlgorithm(algorithm);
+        configurer.setIgnoreUnresolvablePlaceholders(true);
+        configurer.postProcessBeanFactory(beanFactory);
+        return beanFactory;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(PlaceholderConfigurerBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
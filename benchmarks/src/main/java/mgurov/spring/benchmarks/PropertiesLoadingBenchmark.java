@@ -0,0 +1,99 @@
+package mgurov.spring.benchmarks;
+
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertiesFormatReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Compares reading a property file generated by {@link PropertyMapGenerator} into the resolver input map by the
+ * {@link Properties#load(InputStream)} against the {@link PropertiesFormatReader}. The file is written by
+ * {@link Properties#store(OutputStream, String)}, so it is full of escapes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PropertiesLoadingBenchmark {
+
+    @Param({"1000", "100000"})
+    private int keyCount;
+
+    private File file;
+
+    @Setup
+    public void writeFile() throws IOException {
+        final Properties properties = new Properties();
+        properties.putAll(new PropertyMapGenerator(keyCount, 4, 2, 0.5, 0.1).generate());
+        file = File.createTempFile("benchmark", ".properties");
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            properties.store(os, "generated by " + getClass().getSimpleName());
+        } finally {
+            os.close();
+        }
+    }
+
+    @TearDown
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Map<String, String> javaUtilProperties() throws IOException {
+        final Properties properties = new Properties();
+        final InputStream is = new FileInputStream(file);
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        return newHashMap(Maps.fromProperties(properties));
+    }
+
+    @Benchmark
+    public Map<String, String> formatReader() throws IOException {
+        final Map<String, String> result = newHashMap();
+        PropertiesFormatReader.read(file, result);
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(PropertiesLoadingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,79 @@
+package mgurov.spring.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Generates property maps of a given shape to feed the resolution benchmarks. Keys are spread evenly over
+ * <em>depth + 1</em> levels: level 0 holds plain values, every key of level <em>N</em> references at least one key of level
+ * <em>N - 1</em> so the longest reference chain is exactly <em>depth</em> long and no cycles could ever be produced.
+ * <ul>
+ *     <li><em>fanOut</em> - number of placeholders in each non-plain value</li>
+ *     <li><em>keyReuse</em> - share of placeholders pointing to a handful of "hot" keys of the referenced level
+ *     instead of a random one, think of ${env.host} or ${base.dir}</li>
+ *     <li><em>unresolvedShare</em> - share of placeholders pointing to a missing key and thus left intact. The first placeholder
+ *     of a value always resolves to keep the depth of the chain.</li>
+ * </ul>
+ * The generation is deterministic for the same parameters.
+ */
+public class PropertyMapGenerator {
+
+    private static final int HOT_KEYS_PER_LEVEL = 8;
+
+    private final int keyCount;
+    private final int depth;
+    private final int fanOut;
+    private final double keyReuse;
+    private final double unresolvedShare;
+
+    public PropertyMapGenerator(int keyCount, int depth, int fanOut, double keyReuse, double unresolvedShare) {
+        if (keyCount <= depth) {
+            throw new IllegalArgumentException("need more keys (" + keyCount + ") than levels of depth (" + depth + ")");
+        }
+        this.keyCount = keyCount;
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.keyReuse = keyReuse;
+        this.unresolvedShare = unresolvedShare;
+    }
+
+    public Map<String, String> generate() {
+        final Random random = new Random(31L * keyCount + depth);
+        final int levels = depth + 1;
+        final int keysPerLevel = keyCount / levels;
+
+        final Map<String, String> result = newLinkedHashMap();
+        for (int i = 0; i < keyCount; i++) {
+            final int level = Math.min(i / keysPerLevel, depth);
+            result.put(key(level, i), value(random, level, keysPerLevel, i));
+        }
+        return result;
+    }
+
+    private String value(Random random, int level, int keysPerLevel, int index) {
+        if (level == 0) {
+            return "plain value number " + index;
+        }
+        final StringBuilder value = new StringBuilder("v").append(index);
+        for (int placeholder = 0; placeholder < fanOut; placeholder++) {
+            value.append(placeholder == 0 ? ':' : '/');
+            if (placeholder > 0 && random.nextDouble() < unresolvedShare) {
+                value.append("${missing.").append(random.nextInt(keyCount)).append('}');
+                continue;
+            }
+            //the first placeholder always goes one level down to guarantee the depth
+            final int referencedLevel = placeholder == 0 ? level - 1 : random.nextInt(level);
+            final int offset = random.nextDouble() < keyReuse
+                    ? random.nextInt(Math.min(HOT_KEYS_PER_LEVEL, keysPerLevel))
+                    : random.nextInt(keysPerLevel);
+            value.append("${").append(key(referencedLevel, referencedLevel * keysPerLevel + offset)).append('}');
+        }
+        return value.toString();
+    }
+
+    private static String key(int level, int index) {
+        return "level" + level + ".key" + index;
+    }
+}
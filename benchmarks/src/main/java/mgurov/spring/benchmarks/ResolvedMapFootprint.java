@@ -0,0 +1,52 @@
+package mgurov.spring.benchmarks;
+
+import mgurov.spring.MapUtils;
+import mgurov.spring.MapValuesResolutionAlgorithm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+
+/**
+ * Compares the heap retained by the resolved maps of the different algorithms, e.g. the plain strings of BUILD_TREE against
+ * the shared segments of BUILD_TREE_COMPACT. Not a JMH benchmark as JMH measures time and allocation, not the retained size.
+ * <br/>
+ * Usage: {@code java -cp target/benchmarks.jar mgurov.spring.benchmarks.ResolvedMapFootprint [keyCount depth fanOut keyReuse unresolvedShare]}
+ */
+public class ResolvedMapFootprint {
+
+    private static final MapValuesResolutionAlgorithm[] ALGORITHMS = {
+            MapValuesResolutionAlgorithm.SIMPLE_SQUASH,
+            MapValuesResolutionAlgorithm.BUILD_TREE,
+            MapValuesResolutionAlgorithm.BUILD_TREE_COMPACT
+    };
+
+    public static void main(String[] args) {
+        final PropertyMapGenerator generator = args.length == 5
+                ? new PropertyMapGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Double.parseDouble(args[3]), Double.parseDouble(args[4]))
+                : new PropertyMapGenerator(100000, 6, 3, 0.9, 0.0);
+        final Map<String, String> input = generator.generate();
+
+        System.out.printf("%-20s %15s %15s%n", "algorithm", "retained, KiB", "total chars");
+        for (MapValuesResolutionAlgorithm algorithm : ALGORITHMS) {
+            final long before = usedHeap();
+            final Map<String, String> resolved = MapUtils.resolveValues(algorithm, input);
+            final long retained = usedHeap() - before;
+
+            long chars = 0;
+            for (String value : resolved.values()) {
+                chars += value.length();
+            }
+            System.out.printf("%-20s %15d %15d%n", algorithm, retained / 1024, chars);
+        }
+    }
+
+    private static long usedHeap() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -1,7 +1,36 @@
 package mgurov.spring;
 
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+
 public class CircularReferenceException extends RuntimeException {
+
+    private final List<List<String>> cycles;
+
     public CircularReferenceException(String keyRefererence) {
         super(keyRefererence + " has already been met before");
+        this.cycles = ImmutableList.<List<String>>of(ImmutableList.of(keyRefererence));
+    }
+
+    /**
+     * @param cycles keys of each group of circularly referencing each other keys
+     */
+    public CircularReferenceException(Collection<? extends Collection<String>> cycles) {
+        super("circular references found: " + Joiner.on(", ").join(cycles));
+        final ImmutableList.Builder<List<String>> builder = ImmutableList.builder();
+        for (Collection<String> cycle : cycles) {
+            builder.add(ImmutableList.copyOf(cycle));
+        }
+        this.cycles = builder.build();
+    }
+
+    /**
+     * @return keys of each group of circularly referencing each other keys known at the moment of detection.
+     */
+    public List<List<String>> getCycles() {
+        return cycles;
     }
 }
@@ -1,7 +1,17 @@
 package mgurov.spring;
 
+import mgurov.spring.impl.CompiledMap;
 import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ReferenceIndex;
+import mgurov.spring.impl.ResolutionInstrumentation;
+import mgurov.spring.impl.ResolutionLimits;
+import mgurov.spring.impl.ResolutionSession;
+import mgurov.spring.impl.ResolvedValuesSink;
+import mgurov.spring.impl.StreamingMapValuesResolver;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 
@@ -11,8 +21,11 @@ public class MapUtils {
      * Utility that substitutes placeholders in the values of the given map by its available keys.
      * <ul>
      *     <li>placeholder denoted by a pair of <em>${</em> and <em>}</em> (configurable)</li>
-     *     <li>default values are not supported and the placeholder left intact in case referenced key is missing</li>
-     *     <li>${@link CircularReferenceException} thrown upon such occasion detected (not suppored by the RESOLUTION_TREE algorithm)</li>
+     *     <li>placeholder left intact in case referenced key is missing</li>
+     *     <li>placeholders could be nested, e.g. <em>${db.${env}.url}</em></li>
+     *     <li>default values, e.g. <em>${timeout:30}</em>, are supported by {@link #merge(MapValuesResolutionAlgorithm, PropertyValueParser, Map)}
+     *     with a value separator given to the {@link PropertyValueParser}</li>
+     *     <li>${@link CircularReferenceException} thrown upon such occasion detected</li>
      * </ul>
      *
      * The utility was initially supposed to enhance Spring property loading but I quickly realized that I can achieve the goals
@@ -21,11 +34,90 @@ public class MapUtils {
      *
      */
     public static Map<String, String> resolveValues(MapValuesResolutionAlgorithm algorithm, Map<String, String> input) {
-        return merge(algorithm, new PropertyValueParser(), input);
+        return algorithm.sharedInstance().merge(input);
+    }
+
+    /**
+     * Resolves the values like {@link #resolveValues(MapValuesResolutionAlgorithm, Map)} does and keeps the state around
+     * to re-resolve only what is affected by the further changes.
+     */
+    public static ResolutionSession openSession(Map<String, String> input) {
+        return new ResolutionSession(new PropertyValueParser(), input);
+    }
+
+    /**
+     * Parses and resolves the base once to resolve many sets of overrides against it afterwards, e.g. per tenant or profile.
+     */
+    public static CompiledMap compile(Map<String, String> base) {
+        return new CompiledMap(new PropertyValueParser(), base);
+    }
+
+    /**
+     * Resolves the layers, e.g. loaded by {@link PropertiesFileCache#loadLayers(List)}, without squashing them together: the
+     * first layer is resolved on its own and the rest of the layers are applied to it as overrides, see {@link CompiledMap#resolve(List)}.
+     * Compile the first layer once by {@link #compile(Map)} to resolve it with different overrides many times.
+     *
+     * @param layers the later layers taking precedence over the earlier ones, at least one
+     * @return read-only resolved values
+     */
+    public static Map<String, String> resolveLayers(List<? extends Map<String, String>> layers) {
+        return compile(layers.get(0)).resolve(layers.subList(1, layers.size()));
+    }
+
+    /**
+     * Resolves the values like {@link #resolveValues(MapValuesResolutionAlgorithm, Map)} does, pushing them into the sink
+     * one by one rather than collecting into a map, e.g. a {@link mgurov.spring.impl.PropertiesWriterSink}.
+     * See {@link StreamingMapValuesResolver} for the size of the cache of the referenced values.
+     */
+    public static void resolveValues(Map<String, String> input, ResolvedValuesSink sink) throws IOException {
+        resolveValues(input, ResolutionLimits.NONE, sink);
+    }
+
+    /**
+     * Same as {@link #resolveValues(Map, ResolvedValuesSink)} failing fast by a {@link ResolutionLimitExceededException}
+     * once the values get beyond the limits, see {@link #merge(MapValuesResolutionAlgorithm, PropertyValueParser, ResolutionLimits, Map)}.
+     */
+    public static void resolveValues(Map<String, String> input, ResolutionLimits limits, ResolvedValuesSink sink) throws IOException {
+        new StreamingMapValuesResolver(new PropertyValueParser(), StreamingMapValuesResolver.DEFAULT_CACHE_SIZE, ResolutionInstrumentation.NONE, limits).resolve(input, sink);
+    }
+
+    /**
+     * Builds the index of the references among the keys, e.g. to find out which keys use a key.
+     */
+    public static ReferenceIndex indexReferences(Map<String, String> input) {
+        return new ReferenceIndex(new PropertyValueParser(), input);
+    }
+
+    /**
+     * Resolves the values like {@link #resolveValues(MapValuesResolutionAlgorithm, Map)} does, but only of the root keys and
+     * of the keys they reference, directly or not, see {@link ReferenceIndex#prune(Collection)}. The rest of the keys are
+     * neither resolved nor checked for circular references.
+     *
+     * @param roots the keys to be resolved, e.g. the placeholders used in the bean definitions
+     * @return resolved values of the roots and the keys they reach
+     */
+    public static Map<String, String> resolveReachable(MapValuesResolutionAlgorithm algorithm, Map<String, String> input, Collection<String> roots) {
+        return resolveValues(algorithm, indexReferences(input).prune(roots));
     }
 
     public static Map<String, String> merge(MapValuesResolutionAlgorithm algorithm, PropertyValueParser propertyValueParser, Map<String, String> input) {
         return algorithm.newInstance(propertyValueParser).merge(input);
     }
 
+    /**
+     * @param instrumentation to collect the statistics of the resolution, e.g. {@link mgurov.spring.impl.RecordingInstrumentation}
+     */
+    public static Map<String, String> merge(MapValuesResolutionAlgorithm algorithm, PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, Map<String, String> input) {
+        return algorithm.newInstance(propertyValueParser, instrumentation).merge(input);
+    }
+
+    /**
+     * Resolves the values failing fast by a {@link ResolutionLimitExceededException} once some value, all the values together
+     * or some chain of references get beyond the limits, e.g. upon the values referencing each other several times
+     * level after level, <em>a=${b}${b}</em>, <em>b=${c}${c}</em> and so on, growing exponentially.
+     */
+    public static Map<String, String> merge(MapValuesResolutionAlgorithm algorithm, PropertyValueParser propertyValueParser, ResolutionLimits limits, Map<String, String> input) {
+        return algorithm.newInstance(propertyValueParser, ResolutionInstrumentation.NONE, limits).merge(input);
+    }
+
 }
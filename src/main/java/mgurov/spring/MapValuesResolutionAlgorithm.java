@@ -7,16 +7,89 @@ import mgurov.spring.impl.SimpleMapValuesResolver;
 public enum MapValuesResolutionAlgorithm {
     SIMPLE_SQUASH {
         @Override
-        MapValuesResolver newInstance(PropertyValueParser propertyValueParser) {
-            return new SimpleMapValuesResolver(propertyValueParser);
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new SimpleMapValuesResolver(propertyValueParser, instrumentation, limits);
         }
     } ,
     BUILD_TREE {
         @Override
-        MapValuesResolver newInstance(PropertyValueParser propertyValueParser) {
-            return new ResolutionTree(propertyValueParser);
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new ResolutionTree(propertyValueParser, ResolutionTree.OutputMode.MATERIALIZED, instrumentation, limits);
+        }
+    },
+    /**
+     * {@link #BUILD_TREE} keeping the values in a compact form sharing the referenced parts, stringified upon each read
+     */
+    BUILD_TREE_COMPACT {
+        @Override
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new ResolutionTree(propertyValueParser, ResolutionTree.OutputMode.COMPACT, instrumentation, limits);
+        }
+    },
+    MEMOIZED_SQUASH {
+        @Override
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new MemoizingMapValuesResolver(propertyValueParser, instrumentation, limits);
+        }
+    },
+    TOPOLOGICAL {
+        @Override
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new TopologicalMapValuesResolver(propertyValueParser, instrumentation, limits);
+        }
+    },
+    /**
+     * {@link #TOPOLOGICAL} on as many threads as there are processors, see {@link ParallelMapValuesResolver} to configure the parallelism
+     */
+    PARALLEL {
+        @Override
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new ParallelMapValuesResolver(propertyValueParser, Runtime.getRuntime().availableProcessors(), ParallelMapValuesResolver.DEFAULT_CHUNK_SIZE, instrumentation, limits);
+        }
+    },
+    /**
+     * Read-only view resolving the values upon the first access, see {@link LazyMapValuesResolver}
+     */
+    LAZY {
+        @Override
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new LazyMapValuesResolver(propertyValueParser, instrumentation, limits);
+        }
+    },
+    /**
+     * Resolution over arrays indexed by the int ids of the keys, see {@link IndexedMapValuesResolver}
+     */
+    INDEXED {
+        @Override
+        MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+            return new IndexedMapValuesResolver(propertyValueParser, instrumentation, limits);
         }
     };
 
-    abstract MapValuesResolver newInstance(PropertyValueParser propertyValueParser);
+    private static final PropertyValueParser DEFAULT_PARSER = new PropertyValueParser();
+
+    private volatile MapValuesResolver sharedInstance;
+
+    /**
+     * @return instance with the default parser shared by all the callers, the resolvers keep no state between the merges
+     */
+    MapValuesResolver sharedInstance() {
+        MapValuesResolver result = sharedInstance;
+        if (null == result) {
+            //racing threads could create an extra instance, no harm
+            result = newInstance(DEFAULT_PARSER);
+            sharedInstance = result;
+        }
+        return result;
+    }
+
+    MapValuesResolver newInstance(PropertyValueParser propertyValueParser) {
+        return newInstance(propertyValueParser, ResolutionInstrumentation.NONE);
+    }
+
+    MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation) {
+        return newInstance(propertyValueParser, instrumentation, ResolutionLimits.NONE);
+    }
+
+    abstract MapValuesResolver newInstance(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits);
 }
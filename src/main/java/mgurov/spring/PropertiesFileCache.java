@@ -0,0 +1,188 @@
+package mgurov.spring;
+
+import mgurov.spring.impl.PropertiesFormatReader;
+import mgurov.spring.impl.ResourceLocations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Parsed property files by their location. A file is read again only if its last modification time or its length has changed, so the
+ * same content read by the {@link PropertiesPrototypesNameFinder} while splitting the locations could be handed over to the
+ * resolution without reading the files for the second time:
+ * <pre class="code">{@code
+ * PropertiesFileCache cache = new PropertiesFileCache();
+ * splitter.setPrototypeNamesFinder(new PropertiesPrototypesNameFinder(cache));
+ * Map<String, String> resolved = MapUtils.resolveValues(algorithm, cache.loadAll(splitter.split("env,host")));
+ * }
+ * </pre>
+ * Locations are resolved the Spring way, see {@link ResourceLocations}. The resources other than files, e.g. within jars or
+ * over HTTP, are checked and read by a single connection. Thread safe.
+ */
+public class PropertiesFileCache {
+
+    private final Map<String, ParsedFile> files = new ConcurrentHashMap<String, ParsedFile>();
+
+    /**
+     * @return immutable properties of the file
+     * @throws PropertiesLoadingException in case the file couldn't be found or read
+     */
+    public Map<String, String> load(String location) {
+        try {
+            final URL url = ResourceLocations.toUrl(location);
+            final ParsedFile cached = files.get(location);
+            final ParsedFile parsed = null == ResourceLocations.toFile(url) ? load(url, cached) : loadFile(url, cached);
+            if (parsed != cached) {
+                files.put(location, parsed);
+            }
+            return parsed.properties;
+        } catch (IOException e) {
+            throw new PropertiesLoadingException(location, e);
+        }
+    }
+
+    private static ParsedFile loadFile(URL url, ParsedFile cached) throws IOException {
+        final ResourceLocations.Stamp stamp = ResourceLocations.stamp(url);
+        if (null != cached && cached.stamp.isSameAs(stamp)) {
+            return cached;
+        }
+        return new ParsedFile(stamp, read(url));
+    }
+
+    private static ParsedFile load(URL url, ParsedFile cached) throws IOException {
+        final URLConnection connection = ResourceLocations.connect(url);
+        try {
+            final ResourceLocations.Stamp stamp = ResourceLocations.stamp(connection);
+            if (null != cached && cached.stamp.isSameAs(stamp)) {
+                return cached;
+            }
+            final Map<String, String> properties = newHashMap();
+            final InputStream is = connection.getInputStream();
+            try {
+                PropertiesFormatReader.read(is, properties);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                is.close();
+            }
+            return new ParsedFile(stamp, properties);
+        } finally {
+            ResourceLocations.release(connection);
+        }
+    }
+
+    /**
+     * @return properties of all the files squashed together, the later files overriding the earlier ones
+     */
+    public Map<String, String> loadAll(List<String> locations) {
+        final Map<String, String> result = newHashMap();
+        for (String location : locations) {
+            result.putAll(load(location));
+        }
+        return result;
+    }
+
+    /**
+     * @return properties of each file in the order of the locations, the cached maps themselves, to be resolved by
+     * {@link MapUtils#resolveLayers(List)} with no squashing
+     */
+    public List<Map<String, String>> loadLayers(List<String> locations) {
+        final List<Map<String, String>> result = newArrayListWithCapacity(locations.size());
+        for (String location : locations) {
+            result.add(load(location));
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #loadAll(List)} but the files are read by up to {@code parallelism} threads at once, which pays off on slow,
+     * e.g. network mounted, file systems.
+     */
+    public Map<String, String> loadAll(List<String> locations, int parallelism) {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, locations.size())));
+        try {
+            return loadAll(locations, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Same as {@link #loadAll(List)} but the files are read concurrently by the executor. Still squashed in the order of the
+     * locations once all of them have been read.
+     */
+    public Map<String, String> loadAll(List<String> locations, ExecutorService executor) {
+        final List<Future<Map<String, String>>> loading = newArrayListWithCapacity(locations.size());
+        for (final String location : locations) {
+            loading.add(executor.submit(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() {
+                    return load(location);
+                }
+            }));
+        }
+        final Map<String, String> result = newHashMap();
+        for (int i = 0; i < locations.size(); i++) {
+            result.putAll(waitFor(locations.get(i), loading.get(i)));
+        }
+        return result;
+    }
+
+    private static Map<String, String> waitFor(String location, Future<Map<String, String>> loading) {
+        try {
+            return loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PropertiesLoadingException(location, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PropertiesLoadingException(location, e.getCause());
+        }
+    }
+
+    /**
+     * Drops the file so it is read again upon the next load whatever its modification time and length, e.g. once it is known
+     * to have been modified within the granularity of the file system timestamps.
+     */
+    public void invalidate(String location) {
+        files.remove(location);
+    }
+
+    public void clear() {
+        files.clear();
+    }
+
+    private static Map<String, String> read(URL url) throws IOException {
+        try {
+            return PropertiesFormatReader.read(url);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static class ParsedFile {
+        private final ResourceLocations.Stamp stamp;
+        private final Map<String, String> properties;
+
+        private ParsedFile(ResourceLocations.Stamp stamp, Map<String, String> properties) {
+            this.stamp = stamp;
+            this.properties = Collections.unmodifiableMap(properties);
+        }
+    }
+}
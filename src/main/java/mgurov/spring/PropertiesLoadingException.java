@@ -0,0 +1,7 @@
+package mgurov.spring;
+
+public class PropertiesLoadingException extends RuntimeException {
+    public PropertiesLoadingException(String location, Throwable cause) {
+        super("failed to load properties from " + location, cause);
+    }
+}
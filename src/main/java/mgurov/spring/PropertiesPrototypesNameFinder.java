@@ -0,0 +1,38 @@
+package mgurov.spring;
+
+/**
+ * Finds the prototypes of a property file by the value of a key within the file itself, <em>prototype</em> by default:
+ * <pre class="code">{@code
+ * prototype=base,defaults
+ * }
+ * </pre>
+ * The files are read through the {@link PropertiesFileCache} which could be reused to load the split locations afterwards.
+ */
+public class PropertiesPrototypesNameFinder implements PropertyFileNamesSplitter.PrototypesNameFinder {
+
+    public static final String DEFAULT_PROTOTYPE_KEY = "prototype";
+
+    private final PropertiesFileCache cache;
+    private String prototypeKey = DEFAULT_PROTOTYPE_KEY;
+
+    public PropertiesPrototypesNameFinder() {
+        this(new PropertiesFileCache());
+    }
+
+    public PropertiesPrototypesNameFinder(PropertiesFileCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public String findPrototypeName(String input) {
+        return cache.load(input).get(prototypeKey);
+    }
+
+    public void setPrototypeKey(String prototypeKey) {
+        this.prototypeKey = prototypeKey;
+    }
+
+    public PropertiesFileCache getCache() {
+        return cache;
+    }
+}
@@ -2,12 +2,19 @@ package mgurov.spring;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
 
 /**
  * An utility to parse comma separated list (of property files) and return them as a list of strings. <br/>
@@ -15,6 +22,11 @@ import static com.google.common.collect.Lists.newArrayList;
  * * configurable prefix and suffix to wrap split strings <br/>
  * * configurable prototype provider to put prototypes in front of the split string <br/>
  * <br/>
+ * The prototypes of each file are looked up only once per split. A file met several times (e.g. a base prototype shared by
+ * a few files) is listed once, at the position of its last occurrence, which keeps the overriding order intact.
+ * A prototype circle is reported by a {@link CircularReferenceException}.
+ * <br/>
+ * <br/>
  * Example
  * <pre class="code">{@code
  * <bean id="classUnderTest" class="mgurov.spring.PropertyFileNamesSplitter">
@@ -41,16 +53,59 @@ public class PropertyFileNamesSplitter {
     private PrototypesNameFinder prototypeNamesFinder = NO_PROTO;
 
     public List<String> split(String commaSeparatedPropertyFileNames) {
-        final List<String> result = newArrayList();
-        for (String s : COMMA_SPLITTER.split(commaSeparatedPropertyFileNames)) {
-            final String wrapped = wrap(s);
+        return newArrayList(new PrototypesExpansion().split(commaSeparatedPropertyFileNames));
+    }
+
+    /**
+     * Remembers the prototypes of each file met during a single split.
+     */
+    private class PrototypesExpansion {
+        private final Map<String, Set<String>> expanded = newHashMap();
+        private final Set<String> inProgress = newLinkedHashSet();
+
+        private Set<String> split(String commaSeparatedPropertyFileNames) {
+            final Set<String> result = newLinkedHashSet();
+            for (String s : COMMA_SPLITTER.split(commaSeparatedPropertyFileNames)) {
+                addAllLastWins(result, expand(wrap(s)));
+            }
+            return result;
+        }
+
+        /**
+         * @return the prototypes of the file followed by the file itself
+         */
+        private Set<String> expand(String wrapped) {
+            Set<String> result = expanded.get(wrapped);
+            if (null != result) {
+                return result;
+            }
+            if (!inProgress.add(wrapped)) {
+                throw new CircularReferenceException(Collections.singletonList(cycleClosedBy(wrapped)));
+            }
+            result = newLinkedHashSet();
             final String prototypes = prototypeNamesFinder.findPrototypeName(wrapped);
             if (prototypes != null) {
-                result.addAll(split(prototypes));
+                addAllLastWins(result, split(prototypes));
             }
+            result.remove(wrapped);
+            result.add(wrapped);
+            inProgress.remove(wrapped);
+            expanded.put(wrapped, result);
+            return result;
+        }
+
+        private List<String> cycleClosedBy(String wrapped) {
+            final List<String> result = newArrayList(Iterables.skip(inProgress, Iterables.indexOf(inProgress, Predicates.equalTo(wrapped))));
             result.add(wrapped);
+            return result;
+        }
+    }
+
+    private static void addAllLastWins(Set<String> target, Set<String> source) {
+        for (String s : source) {
+            target.remove(s);
+            target.add(s);
         }
-        return result;
     }
 
     private String wrap(String s) {
@@ -0,0 +1,288 @@
+package mgurov.spring;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ResolutionSession;
+import mgurov.spring.impl.ResourceLocations;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Resolved values of the property files, e.g. split by {@link PropertyFileNamesSplitter}, kept up to date while the files
+ * change. Once {@link #start()}ed the directories of the files are watched, a burst of changes being collected until the files
+ * stay quiet for the debounce period. Only the files modified are read again and only the keys affected by the changes are
+ * resolved again (see {@link ResolutionSession}). The files the watcher reports are read again for sure, the rest only if
+ * their modification time or length has changed (see {@link PropertiesFileCache}), so an edit within the same tick of the
+ * file system timestamps isn't lost.
+ * <br/>
+ * The readers never block: the resolved values are an immutable map published by a single reference swap, so a reader
+ * sees either the values before or after a reload, never a mix. The listeners are notified about the keys changed after the swap.
+ * A failed reload, e.g. of a file being written or introducing a circular reference, keeps the previous values and is reported
+ * to the listeners.
+ * <br/>
+ * Only the files on the file system are watched, the rest (e.g. packed into jars) are re-read upon {@link #reload()} if changed.
+ */
+public class ReloadableProperties implements Closeable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    public interface Listener {
+        /**
+         * @param changedKeys the keys whose resolved values have changed, including the added and the removed ones
+         * @param values the resolved values after the change
+         */
+        void onChange(Set<String> changedKeys, Map<String, String> values);
+
+        /**
+         * @param e the reason of the reload failure, the values stay as they were
+         */
+        void onReloadFailure(RuntimeException e);
+    }
+
+    private final List<String> locations;
+    private final long debounceMillis;
+    private final PropertiesFileCache propertiesFileCache;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final AtomicReference<Map<String, String>> values = new AtomicReference<Map<String, String>>();
+
+    //guarded by this
+    private Map<String, String> input;
+    private final ResolutionSession session;
+    private WatchService watchService;
+
+    public ReloadableProperties(List<String> locations) {
+        this(locations, DEFAULT_DEBOUNCE_MILLIS, new PropertiesFileCache());
+    }
+
+    /**
+     * Loads and resolves the files right away.
+     *
+     * @param locations the later files taking precedence over the earlier ones
+     * @param debounceMillis how long the files are to stay quiet before reloading
+     * @throws PropertiesLoadingException in case a file couldn't be found or read
+     * @throws CircularReferenceException if the values reference each other
+     */
+    public ReloadableProperties(List<String> locations, long debounceMillis, PropertiesFileCache propertiesFileCache) {
+        this.locations = ImmutableList.copyOf(locations);
+        this.debounceMillis = debounceMillis;
+        this.propertiesFileCache = propertiesFileCache;
+        input = propertiesFileCache.loadAll(this.locations);
+        session = new ResolutionSession(new PropertyValueParser(), input);
+        values.set(ImmutableMap.copyOf(session.getResolvedValues()));
+    }
+
+    /**
+     * @return immutable resolved values as of the last successful reload
+     */
+    public Map<String, String> getValues() {
+        return values.get();
+    }
+
+    public String get(String key) {
+        return values.get().get(key);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reads the files modified since the last reload and resolves the keys affected, publishing the new values if any has changed.
+     *
+     * @return the keys whose resolved values have changed
+     * @throws PropertiesLoadingException in case a file couldn't be found or read, the values are left intact
+     * @throws CircularReferenceException if the changes introduce circular references, the values are left intact
+     */
+    public synchronized Set<String> reload() {
+        return reload(ImmutableSet.<String>of());
+    }
+
+    /**
+     * Same as {@link #reload()} reading the locations given again whatever their modification time and length.
+     *
+     * @param modifiedLocations known to have been modified, e.g. reported by the file system
+     */
+    public synchronized Set<String> reload(Collection<String> modifiedLocations) {
+        for (String location : modifiedLocations) {
+            propertiesFileCache.invalidate(location);
+        }
+        final Map<String, String> reloaded = propertiesFileCache.loadAll(locations);
+        final ResolutionSession.Changes changes = new ResolutionSession.Changes();
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : reloaded.entrySet()) {
+            if (!Objects.equal(entry.getValue(), input.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        for (String key : input.keySet()) {
+            if (!reloaded.containsKey(key)) {
+                changes.remove(key);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return ImmutableSet.of();
+        }
+
+        final Set<String> changedKeys = session.apply(changes);
+        input = reloaded;
+        if (!changedKeys.isEmpty()) {
+            final Map<String, String> published = ImmutableMap.copyOf(session.getResolvedValues());
+            values.set(published);
+            for (Listener listener : listeners) {
+                listener.onChange(changedKeys, published);
+            }
+        }
+        return changedKeys;
+    }
+
+    /**
+     * Starts watching the directories of the files by a daemon thread.
+     *
+     * @throws IOException if the directories couldn't be watched
+     */
+    public synchronized void start() throws IOException {
+        if (null != watchService) {
+            throw new IllegalStateException("already started");
+        }
+        final Map<Path, Set<String>> files = watchedFiles();
+        final WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            final Set<Path> directories = newHashSet();
+            for (Path file : files.keySet()) {
+                if (directories.add(file.getParent())) {
+                    file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        this.watchService = watchService;
+
+        final Thread watcher = new Thread(new Watcher(watchService, files), "properties-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the files, the values stay available.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (null != watchService) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    /**
+     * @return the locations of each file on the file system
+     */
+    private Map<Path, Set<String>> watchedFiles() throws IOException {
+        final Map<Path, Set<String>> result = newHashMap();
+        for (String location : locations) {
+            final URL url = ResourceLocations.toUrl(location);
+            final File file = ResourceLocations.toFile(url);
+            if (null != file) {
+                final Path path = file.toPath().toAbsolutePath().normalize();
+                Set<String> fileLocations = result.get(path);
+                if (null == fileLocations) {
+                    fileLocations = newHashSet();
+                    result.put(path, fileLocations);
+                }
+                fileLocations.add(location);
+            }
+        }
+        return result;
+    }
+
+    private class Watcher implements Runnable {
+        private final WatchService watchService;
+        private final Map<Path, Set<String>> files;
+
+        private Watcher(WatchService watchService, Map<Path, Set<String>> files) {
+            this.watchService = watchService;
+            this.files = files;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Set<String> modified = newHashSet();
+                    collect(watchService.take(), modified);
+                    if (modified.isEmpty()) {
+                        continue;
+                    }
+                    //collecting the rest of the burst
+                    WatchKey key;
+                    while (null != (key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS))) {
+                        collect(key, modified);
+                    }
+                    try {
+                        reload(modified);
+                    } catch (RuntimeException e) {
+                        for (Listener listener : listeners) {
+                            listener.onReloadFailure(e);
+                        }
+                    }
+                }
+            } catch (ClosedWatchServiceException e) {
+                //closed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Adds the locations of the watched files the events of the key concern, all of them if some events got lost.
+         * The key is reset.
+         */
+        private void collect(WatchKey key, Set<String> modified) {
+            final Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (Set<String> fileLocations : files.values()) {
+                        modified.addAll(fileLocations);
+                    }
+                    continue;
+                }
+                final Set<String> fileLocations = files.get(directory.resolve((Path) event.context()).toAbsolutePath().normalize());
+                if (null != fileLocations) {
+                    modified.addAll(fileLocations);
+                }
+            }
+            key.reset();
+        }
+    }
+}
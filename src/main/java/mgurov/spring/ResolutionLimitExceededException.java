@@ -0,0 +1,25 @@
+package mgurov.spring;
+
+/**
+ * The resolution has been stopped as some value would get too long, all the values together would get too long or some chain
+ * of references is too deep, see {@link mgurov.spring.impl.ResolutionLimits}.
+ */
+public class ResolutionLimitExceededException extends RuntimeException {
+
+    private final String key;
+
+    /**
+     * @param key the key being resolved or null if the limit concerns the values altogether
+     */
+    public ResolutionLimitExceededException(String key, String message) {
+        super(message);
+        this.key = key;
+    }
+
+    /**
+     * @return the key being resolved when the limit has been exceeded or null if the limit concerns the values altogether
+     */
+    public String getKey() {
+        return key;
+    }
+}
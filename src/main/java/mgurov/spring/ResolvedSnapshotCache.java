@@ -0,0 +1,167 @@
+package mgurov.spring;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.io.ByteStreams;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import mgurov.spring.impl.ResourceLocations;
+import mgurov.spring.impl.SnapshotFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the resolved values on disk, see {@link SnapshotFile}, to skip the prototype expansion, the loading and the resolution
+ * of the property files upon the next start as long as the files stay the same. The snapshot is keyed by a fingerprint of
+ * the requested locations, of the locations they are split into and of the last modification time and the size of each file.
+ * The content itself is hashed instead for the files whose modification time is unknown, e.g. served over HTTP with no
+ * Last-Modified header.
+ * <br/>
+ * A missing, stale or corrupt snapshot is never trusted: the values are resolved from the files again and the snapshot is
+ * rewritten. Failing to write the snapshot doesn't fail the loading, the snapshot is merely an optimization.
+ * <pre class="code">{@code
+ * ResolvedSnapshotCache snapshots = new ResolvedSnapshotCache(new File(workDir, "properties.snapshot"));
+ * Map<String, String> resolved = snapshots.load(splitter, "env,host");
+ * }
+ * </pre>
+ * A single snapshot is kept per file, loading other locations replaces it. Thread safe, also across processes sharing the file.
+ */
+public class ResolvedSnapshotCache {
+
+    private static final Joiner LOCATIONS_JOINER = Joiner.on(',');
+
+    private final File snapshot;
+    private final PropertiesFileCache propertiesFileCache;
+    private final MapValuesResolutionAlgorithm algorithm;
+
+    public ResolvedSnapshotCache(File snapshot) {
+        this(snapshot, new PropertiesFileCache(), MapValuesResolutionAlgorithm.TOPOLOGICAL);
+    }
+
+    /**
+     * @param propertiesFileCache to load the files through upon a miss
+     * @param algorithm to resolve the values by upon a miss
+     */
+    public ResolvedSnapshotCache(File snapshot, PropertiesFileCache propertiesFileCache, MapValuesResolutionAlgorithm algorithm) {
+        this.snapshot = snapshot;
+        this.propertiesFileCache = propertiesFileCache;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @param locations property files, the later files overriding the earlier ones
+     * @return read-only resolved values of the files
+     * @throws PropertiesLoadingException in case a file couldn't be found or read
+     */
+    public Map<String, String> load(final List<String> locations) {
+        return load(LOCATIONS_JOINER.join(locations), new Supplier<List<String>>() {
+            @Override
+            public List<String> get() {
+                return locations;
+            }
+        });
+    }
+
+    /**
+     * Splits the property file names and resolves the values of the files, the splitting being skipped as well upon a hit. The
+     * splitter is supposed to be configured the same way between the runs, as only the names and the files split into are
+     * compared: delete the snapshot once the configuration of the splitter changes.
+     *
+     * @return read-only resolved values of the files
+     * @throws PropertiesLoadingException in case a file couldn't be found or read
+     */
+    public Map<String, String> load(final PropertyFileNamesSplitter splitter, final String commaSeparatedPropertyFileNames) {
+        return load(commaSeparatedPropertyFileNames, new Supplier<List<String>>() {
+            @Override
+            public List<String> get() {
+                return splitter.split(commaSeparatedPropertyFileNames);
+            }
+        });
+    }
+
+    private Map<String, String> load(String key, Supplier<List<String>> locations) {
+        final Map<String, String> snapshotted = readSnapshot(key);
+        if (null != snapshotted) {
+            return snapshotted;
+        }
+
+        final List<String> split = locations.get();
+        //taken before the loading so a file changed meanwhile makes the next start miss rather than hit stale values
+        final long fingerprint = fingerprint(key, split);
+        final Map<String, String> resolved = MapUtils.resolveValues(algorithm, propertiesFileCache.loadAll(split));
+        try {
+            SnapshotFile.write(snapshot, fingerprint, key, split, resolved);
+        } catch (IOException e) {
+            //next start resolves the files again, no harm
+        }
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * @return snapshotted values or null if the snapshot is missing, stale or corrupt
+     */
+    private Map<String, String> readSnapshot(String key) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try {
+            final SnapshotFile file = SnapshotFile.read(snapshot);
+            if (!key.equals(file.getKey()) || file.getFingerprint() != fingerprint(key, file.getLocations())) {
+                return null;
+            }
+            return Collections.unmodifiableMap(file.getValues());
+        } catch (IOException e) {
+            return null;
+        } catch (PropertiesLoadingException e) {
+            //a file is gone, the loading reports it
+            return null;
+        }
+    }
+
+    /**
+     * @throws PropertiesLoadingException in case a file couldn't be found
+     */
+    private static long fingerprint(String key, List<String> locations) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        putString(hasher, key);
+        for (String location : locations) {
+            putString(hasher, location);
+            try {
+                final URL url = ResourceLocations.toUrl(location);
+                final ResourceLocations.Stamp stamp = ResourceLocations.stamp(url);
+                if (0 == stamp.getLastModified()) {
+                    putContent(hasher, url);
+                } else {
+                    hasher.putLong(stamp.getLastModified()).putLong(stamp.getLength());
+                }
+            } catch (IOException e) {
+                throw new PropertiesLoadingException(location, e);
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * the stamp can't tell whether the file has changed then
+     */
+    private static void putContent(Hasher hasher, URL url) throws IOException {
+        final InputStream is = ResourceLocations.open(url);
+        try {
+            ByteStreams.copy(is, Funnels.asOutputStream(hasher));
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package mgurov.spring;
+
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ResolutionLimits;
+import mgurov.spring.impl.ValueSubstitution;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.PlaceholderConfigurerSupport;
+import org.springframework.util.StringValueResolver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Replacement of Spring's PropertyPlaceholderConfigurer resolving the whole property set once by the chosen
+ * {@link MapValuesResolutionAlgorithm} rather than resolving the placeholders of the properties again and again for every
+ * bean definition value. The bean definition values are then substituted from the resolved values in a single pass.
+ * <br/>
+ * The property files are loaded through the {@link PropertiesFileCache}, the one of the {@link PropertiesPrototypesNameFinder}
+ * could be passed to read every file only once. The properties given the Spring way, i.e. by <em>locations</em> and
+ * <em>properties</em>, are supported as well, the property files given by {@link #setPropertyLocations(List)} take precedence.
+ * <br/>
+ * The placeholder prefix, suffix and value separator configured are used for both the properties and the bean definitions.
+ * Unlike Spring's configurer the system properties aren't looked up.
+ * <br/>
+ * Set the {@link ResolutionLimits} to fail the context startup rather than run out of memory upon misconfigured properties
+ * growing exponentially when resolved.
+ * <br/>
+ * <br/>
+ * Example
+ * <pre class="code">{@code
+ * <bean id="propertiesFileCache" class="mgurov.spring.PropertiesFileCache"/>
+ *
+ * <bean id="splitter" class="mgurov.spring.PropertyFileNamesSplitter">
+ *     <property name="prefix" value="classpath:mgurov/spring/"/>
+ *     <property name="suffix" value=".properties"/>
+ *     <property name="prototypeNamesFinder">
+ *         <bean class="mgurov.spring.PropertiesPrototypesNameFinder">
+ *             <constructor-arg ref="propertiesFileCache"/>
+ *         </bean>
+ *     </property>
+ * </bean>
+ *
+ * <bean class="mgurov.spring.ResolvingPlaceholderConfigurer">
+ *     <property name="propertyLocations">
+ *         <bean factory-bean="splitter" factory-method="split">
+ *             <constructor-arg value="test-prototype,test-sample"/>
+ *         </bean>
+ *     </property>
+ *     <property name="propertiesFileCache" ref="propertiesFileCache"/>
+ *     <property name="algorithm" value="TOPOLOGICAL"/>
+ *     <property name="ignoreUnresolvablePlaceholders" value="true"/>
+ * </bean>
+ * }
+ * </pre>
+ */
+public class ResolvingPlaceholderConfigurer extends PlaceholderConfigurerSupport {
+
+    private List<String> propertyLocations = Collections.emptyList();
+    private PropertiesFileCache propertiesFileCache = new PropertiesFileCache();
+    private MapValuesResolutionAlgorithm algorithm = MapValuesResolutionAlgorithm.TOPOLOGICAL;
+    private ResolutionLimits limits = ResolutionLimits.NONE;
+
+    @Override
+    protected void processProperties(ConfigurableListableBeanFactory beanFactoryToProcess, Properties props) throws BeansException {
+        final Map<String, String> input = newHashMap();
+        for (String key : props.stringPropertyNames()) {
+            input.put(key, props.getProperty(key));
+        }
+        input.putAll(propertiesFileCache.loadAll(propertyLocations));
+
+        final PropertyValueParser propertyValueParser = new PropertyValueParser(placeholderPrefix, placeholderSuffix, valueSeparator, PropertyValueParser.Mode.SCANNER);
+        final Map<String, String> resolved = MapUtils.merge(algorithm, propertyValueParser, limits, input);
+
+        doProcessProperties(beanFactoryToProcess, new SubstitutingValueResolver(new ValueSubstitution(propertyValueParser, placeholderPrefix, resolved)));
+    }
+
+    private class SubstitutingValueResolver implements StringValueResolver {
+        private final ValueSubstitution substitution;
+
+        private SubstitutingValueResolver(ValueSubstitution substitution) {
+            this.substitution = substitution;
+        }
+
+        @Override
+        public String resolveStringValue(String strVal) {
+            final String value = substitution.substitute(strVal);
+            if (!ignoreUnresolvablePlaceholders) {
+                final String unresolved = substitution.findPlaceholder(value);
+                if (null != unresolved) {
+                    throw new IllegalArgumentException("Could not resolve placeholder '" + unresolved + "' in string value \"" + strVal + "\"");
+                }
+            }
+            return value.equals(nullValue) ? null : value;
+        }
+    }
+
+    /**
+     * @param propertyLocations property files, e.g. split by {@link PropertyFileNamesSplitter}, the later files taking precedence
+     */
+    public void setPropertyLocations(List<String> propertyLocations) {
+        this.propertyLocations = propertyLocations;
+    }
+
+    public void setPropertiesFileCache(PropertiesFileCache propertiesFileCache) {
+        this.propertiesFileCache = propertiesFileCache;
+    }
+
+    /**
+     * @param algorithm to resolve the properties by, {@link MapValuesResolutionAlgorithm#TOPOLOGICAL} by default
+     */
+    public void setAlgorithm(MapValuesResolutionAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @param limits of the resolution of the properties, none by default, see {@link MapUtils#merge(MapValuesResolutionAlgorithm, PropertyValueParser, ResolutionLimits, Map)}
+     */
+    public void setLimits(ResolutionLimits limits) {
+        this.limits = limits;
+    }
+}
@@ -0,0 +1,74 @@
+package mgurov.spring.impl;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable map keeping each value as a segment: either a string or an array of segments. The segments of the referenced
+ * keys are shared rather than copied and the literal strings are deduplicated, so values built of the same few placeholders
+ * cost a couple of references each instead of a string of their own. The price is concatenation upon each read.
+ */
+class CompactValuesMap extends AbstractMap<String, String> {
+
+    private static final Function<Object, String> TO_STRING = new Function<Object, String>() {
+        @Override
+        public String apply(Object segment) {
+            return concatenate(segment);
+        }
+    };
+
+    private final ImmutableMap<String, Object> segments;
+
+    CompactValuesMap(ImmutableMap<String, Object> segments) {
+        this.segments = segments;
+    }
+
+    @Override
+    public String get(Object key) {
+        final Object segment = segments.get(key);
+        return null == segment ? null : concatenate(segment);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return segments.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return segments.size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return Maps.transformValues(segments, TO_STRING).entrySet();
+    }
+
+    static String concatenate(Object segment) {
+        if (segment instanceof String) {
+            return (String) segment;
+        }
+        final StringBuilder result = new StringBuilder();
+        final Deque<Object> toAppend = new ArrayDeque<Object>();
+        toAppend.push(segment);
+        while (!toAppend.isEmpty()) {
+            final Object next = toAppend.pop();
+            if (next instanceof String) {
+                result.append((String) next);
+            } else {
+                final Object[] subSegments = (Object[]) next;
+                for (int i = subSegments.length - 1; i >= 0; i--) {
+                    toAppend.push(subSegments[i]);
+                }
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package mgurov.spring.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+
+/**
+ * A map parsed and resolved once to resolve many sets of overrides against, e.g. the same base properties for many tenants
+ * or profiles. Only the overridden keys and the keys referencing them, directly or not, get resolved for each set of overrides,
+ * by the {@link TopologicalMapValuesResolver} engine, the rest of the values being shared with the base rather than copied.
+ * <br/>
+ * Immutable and thread safe.
+ */
+public final class CompiledMap {
+
+    private final PropertyValueParser propertyValueParser;
+    private final Map<String, ValueTemplate> templates;
+    private final Dependents dependents = new Dependents();
+    private final Map<String, String> resolved;
+
+    /**
+     * @throws mgurov.spring.CircularReferenceException if the base has circular references
+     */
+    public CompiledMap(PropertyValueParser propertyValueParser, Map<String, String> base) {
+        this.propertyValueParser = propertyValueParser;
+        templates = compile(propertyValueParser, base);
+        for (Map.Entry<String, ValueTemplate> entry : templates.entrySet()) {
+            dependents.add(entry.getKey(), entry.getValue());
+        }
+        resolved = Collections.unmodifiableMap(TopologicalMapValuesResolver.resolve(templates, ValueTemplate.NO_VALUES));
+    }
+
+    /**
+     * @return resolved values of the base
+     */
+    public Map<String, String> getResolvedValues() {
+        return resolved;
+    }
+
+    /**
+     * @param overrides values taking precedence over the base ones, new keys could be added as well
+     * @return read-only resolved values of the base with the overrides applied
+     * @throws mgurov.spring.CircularReferenceException if the overrides introduce circular references
+     */
+    public Map<String, String> resolve(Map<String, String> overrides) {
+        if (overrides.isEmpty()) {
+            return resolved;
+        }
+        final Map<String, ValueTemplate> overridden = compile(propertyValueParser, overrides);
+        final Set<String> affected = dependents.affectedBy(overridden.keySet());
+
+        final Map<String, ValueTemplate> toResolve = newHashMapWithExpectedSize(affected.size());
+        for (String key : affected) {
+            final ValueTemplate template = overridden.containsKey(key) ? overridden.get(key) : templates.get(key);
+            if (null != template) {
+                toResolve.put(key, template);
+            }
+        }
+
+        return new OverlayMap(resolved, TopologicalMapValuesResolver.resolve(toResolve, new ValueTemplate.ResolvedValues() {
+            @Override
+            public String get(String key) {
+                return affected.contains(key) ? null : resolved.get(key);
+            }
+        }));
+    }
+
+    /**
+     * @param layers overrides, the later layers taking precedence over the earlier ones, e.g. the environment and the host ones.
+     *               Looked up rather than squashed together.
+     * @return read-only resolved values of the base with all the layers applied
+     */
+    public Map<String, String> resolve(List<? extends Map<String, String>> layers) {
+        if (layers.isEmpty()) {
+            return resolved;
+        }
+        return resolve(layers.size() == 1 ? layers.get(0) : new OverlayMap(layers));
+    }
+
+    private static Map<String, ValueTemplate> compile(PropertyValueParser propertyValueParser, Map<String, String> input) {
+        final Map<String, ValueTemplate> result = newHashMapWithExpectedSize(input.size());
+        for (Map.Entry<String, String> entry : input.entrySet()) {
+            result.put(entry.getKey(), ValueTemplate.compile(propertyValueParser, entry.getValue()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package mgurov.spring.impl;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Reverse references of the keys: which keys are to be resolved again once some keys change.
+ */
+final class Dependents {
+
+    /**
+     * referenced key (could be missing) to the keys referencing it
+     */
+    private final SetMultimap<String, String> dependents = HashMultimap.create();
+    /**
+     * keys whose references are only known upon the resolution, see {@link ValueTemplate#isDynamic()}
+     */
+    private final Set<String> dynamicKeys = newHashSet();
+
+    void add(String key, ValueTemplate template) {
+        for (String reference : template.getReferences()) {
+            dependents.put(reference, key);
+        }
+        if (template.isDynamic()) {
+            dynamicKeys.add(key);
+        }
+    }
+
+    void remove(String key, ValueTemplate template) {
+        for (String reference : template.getReferences()) {
+            dependents.remove(reference, key);
+        }
+        dynamicKeys.remove(key);
+    }
+
+    /**
+     * @return the keys given, the keys referencing them directly or not, and the dynamic keys as those could reference anything
+     */
+    Set<String> affectedBy(Set<String> keys) {
+        final Set<String> result = newHashSet(keys);
+        result.addAll(dynamicKeys);
+        final Deque<String> toVisit = new ArrayDeque<String>(result);
+        while (!toVisit.isEmpty()) {
+            for (String dependent : dependents.get(toVisit.pop())) {
+                if (result.add(dependent)) {
+                    toVisit.push(dependent);
+                }
+            }
+        }
+        return result;
+    }
+}
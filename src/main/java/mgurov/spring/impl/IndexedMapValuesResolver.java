@@ -0,0 +1,253 @@
+package mgurov.spring.impl;
+
+import mgurov.spring.CircularReferenceException;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interns every key into a dense int id once (see {@link KeyDictionary}), so the rest of the resolution runs on arrays
+ * indexed by the ids: the references of each value, the resolved values and the keys being resolved (a {@link BitSet})
+ * rather than on the maps and the sets of strings hashing the same keys over and over again. The keys are resolved depth
+ * first with an explicit stack, the referenced keys going first. The keys looked up dynamically by the expressions are
+ * resolved on demand.
+ * <br/>
+ * The {@link ResolutionLimits} are checked upon pushing a key on the stack and before building each value, the depth of
+ * every resolved key being kept along with its value.
+ * <br/>
+ * The result is a read-only map backed by the dictionary and the array of the resolved values.
+ */
+public class IndexedMapValuesResolver implements MapValuesResolver {
+
+    private final PropertyValueParser propertyValueParser;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+
+    public IndexedMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, ResolutionInstrumentation.NONE);
+    }
+
+    public IndexedMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public IndexedMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+        this.propertyValueParser = propertyValueParser;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+    }
+
+    @Override
+    public Map<String, String> merge(Map<String, String> input) {
+        final KeyDictionary dictionary = new KeyDictionary(input.keySet());
+        final Resolution resolution = new Resolution(dictionary);
+        for (int id = 0; id < dictionary.size(); id++) {
+            instrumentation.onParse();
+            resolution.compile(id, ValueTemplate.compile(propertyValueParser, input.get(dictionary.keyOf(id))));
+        }
+        for (int id = 0; id < dictionary.size(); id++) {
+            final long start = instrumentation.isEnabled() ? System.nanoTime() : 0L;
+            if (null == resolution.resolved[id]) {
+                resolution.resolveFrom(id);
+            }
+            if (instrumentation.isEnabled()) {
+                instrumentation.onKeyResolved(dictionary.keyOf(id), System.nanoTime() - start);
+            }
+        }
+        return new IndexedValuesMap(dictionary, resolution.resolved);
+    }
+
+    /**
+     * State of a single merge, all indexed by the key ids.
+     */
+    private class Resolution implements ValueTemplate.ResolvedValues {
+        private final KeyDictionary dictionary;
+        private final ValueTemplate[] templates;
+        private final int[][] referenceIds;
+        /**
+         * the known references of each key, i.e. the keys to be resolved before it
+         */
+        private final int[][] dependencies;
+        private final String[] resolved;
+        private final BitSet resolving;
+        /**
+         * position of the next dependency to be checked of each key being resolved
+         */
+        private final int[] nextDependency;
+        /**
+         * the length of the longest chain of the known references down from each resolved key, null unless the depth is limited
+         */
+        private final int[] depths;
+        private final AtomicLong totalLength = new AtomicLong();
+
+        private Resolution(KeyDictionary dictionary) {
+            this.dictionary = dictionary;
+            final int size = dictionary.size();
+            templates = new ValueTemplate[size];
+            referenceIds = new int[size][];
+            dependencies = new int[size][];
+            resolved = new String[size];
+            resolving = new BitSet(size);
+            nextDependency = new int[size];
+            depths = limits.getMaxDepth() == Integer.MAX_VALUE ? null : new int[size];
+        }
+
+        private void compile(int id, ValueTemplate template) {
+            templates[id] = template;
+            referenceIds[id] = template.referenceIds(dictionary);
+            final List<String> references = template.getReferences();
+            final int[] known = new int[references.size()];
+            int count = 0;
+            for (String reference : references) {
+                final int referenceId = dictionary.idOf(reference);
+                instrumentation.onPlaceholder(reference, referenceId >= 0);
+                if (referenceId >= 0) {
+                    known[count++] = referenceId;
+                }
+            }
+            dependencies[id] = count == known.length ? known : Arrays.copyOf(known, count);
+        }
+
+        /**
+         * Resolves the key and all the keys it references not resolved yet.
+         */
+        private void resolveFrom(int root) {
+            int[] stack = new int[16];
+            int size = 0;
+            stack[size++] = root;
+            resolving.set(root);
+            instrumentation.onExpansion(dictionary.keyOf(root), 0);
+            while (size > 0) {
+                final int id = stack[size - 1];
+                final int[] idDependencies = dependencies[id];
+                if (nextDependency[id] < idDependencies.length) {
+                    final int dependency = idDependencies[nextDependency[id]++];
+                    if (null != resolved[dependency]) {
+                        continue;
+                    }
+                    if (resolving.get(dependency)) {
+                        throw new CircularReferenceException(dictionary.keyOf(dependency));
+                    }
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = dependency;
+                    resolving.set(dependency);
+                    instrumentation.onExpansion(dictionary.keyOf(dependency), size - 1);
+                    limits.checkDepth(dictionary.keyOf(dependency), size - 1);
+                    continue;
+                }
+                resolved[id] = resolve(id);
+                resolving.clear(id);
+                size--;
+            }
+        }
+
+        /**
+         * All the known references of the key must have been resolved already.
+         */
+        private String resolve(int id) {
+            if (limits.isUnlimited()) {
+                return templates[id].resolve(referenceIds[id], resolved, this);
+            }
+            if (null != depths) {
+                for (int dependency : dependencies[id]) {
+                    depths[id] = Math.max(depths[id], depths[dependency] + 1);
+                }
+                limits.checkDepth(dictionary.keyOf(id), depths[id]);
+            }
+            return templates[id].resolve(referenceIds[id], resolved, this, dictionary.keyOf(id), limits, totalLength);
+        }
+
+        /**
+         * Looks the keys of the expressions up, resolving those on demand.
+         */
+        @Override
+        public String get(String key) {
+            final int id = dictionary.idOf(key);
+            if (id < 0) {
+                return null;
+            }
+            if (null == resolved[id]) {
+                if (resolving.get(id)) {
+                    throw new CircularReferenceException(key);
+                }
+                resolveFrom(id);
+            }
+            return resolved[id];
+        }
+    }
+
+    /**
+     * Read-only map of the resolved values by the key ids.
+     */
+    private static class IndexedValuesMap extends AbstractMap<String, String> {
+        private final KeyDictionary dictionary;
+        private final String[] values;
+
+        private IndexedValuesMap(KeyDictionary dictionary, String[] values) {
+            this.dictionary = dictionary;
+            this.values = values;
+        }
+
+        @Override
+        public String get(Object key) {
+            final int id = dictionary.idOf(key);
+            return id < 0 ? null : values[id];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return dictionary.idOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < values.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final int id = next++;
+                            return new SimpleImmutableEntry<String, String>(dictionary.keyOf(id), values[id]);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return values.length;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package mgurov.spring.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Dense int ids of the keys: 0 to size - 1 in the order of the keys given. An open addressing table of strings and ints,
+ * so neither the ids get boxed nor an entry allocated per key.
+ */
+final class KeyDictionary {
+
+    private final String[] keys;
+    private final String[] table;
+    private final int[] tableIds;
+    private final int mask;
+
+    /**
+     * @param keys distinct
+     */
+    KeyDictionary(Collection<String> keys) {
+        this.keys = keys.toArray(new String[keys.size()]);
+        int capacity = 2;
+        while (capacity < this.keys.length * 2) {
+            capacity <<= 1;
+        }
+        table = new String[capacity];
+        tableIds = new int[capacity];
+        mask = capacity - 1;
+        for (int id = 0; id < this.keys.length; id++) {
+            int slot = slot(this.keys[id]);
+            while (null != table[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = this.keys[id];
+            tableIds[slot] = id;
+        }
+    }
+
+    /**
+     * @return id of the key or -1 if not known
+     */
+    int idOf(Object key) {
+        if (null == key) {
+            return -1;
+        }
+        int slot = slot(key);
+        String candidate;
+        while (null != (candidate = table[slot])) {
+            if (candidate.equals(key)) {
+                return tableIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    String keyOf(int id) {
+        return keys[id];
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    private int slot(Object key) {
+        final int hash = key.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyDictionary" + Arrays.toString(keys);
+    }
+}
@@ -0,0 +1,92 @@
+package mgurov.spring.impl;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Postpones the resolution until the values are actually asked for: returns a read-only view over the input which resolves
+ * (the {@link MemoizingMapValuesResolver} way) and remembers a value upon the first {@link Map#get(Object)} of its key.
+ * All the values get resolved only if the map is iterated over or compared.
+ * <br/>
+ * The input must not be changed while the view is in use, {@link mgurov.spring.CircularReferenceException} is thrown
+ * by the method touching the circular reference, so is {@link mgurov.spring.ResolutionLimitExceededException} by the one
+ * exceeding the {@link ResolutionLimits}, the total length being the one of the values resolved so far.
+ */
+public class LazyMapValuesResolver implements MapValuesResolver {
+
+    private final PropertyValueParser propertyValueParser;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+
+    public LazyMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, ResolutionInstrumentation.NONE);
+    }
+
+    public LazyMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public LazyMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+        this.propertyValueParser = propertyValueParser;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+    }
+
+    @Override
+    public Map<String, String> merge(Map<String, String> input) {
+        return new LazyResolvedMap(new MemoizingMapValuesResolver.Resolution(propertyValueParser, instrumentation, limits, input, new ConcurrentHashMap<String, String>()), input);
+    }
+
+    private static class LazyResolvedMap extends AbstractMap<String, String> {
+        private final MemoizingMapValuesResolver.Resolution resolution;
+        private final Map<String, String> input;
+        private final Map<String, String> resolved;
+        private volatile boolean fullyResolved;
+
+        /**
+         * @param resolution keeping the resolved values in a concurrent map
+         */
+        private LazyResolvedMap(MemoizingMapValuesResolver.Resolution resolution, Map<String, String> input) {
+            this.resolution = resolution;
+            this.input = input;
+            this.resolved = resolution.getResolved();
+        }
+
+        @Override
+        public String get(Object key) {
+            final String value = resolved.get(key);
+            if (null != value || null == input.get(key)) {
+                return value;
+            }
+            synchronized (resolution) {
+                return resolution.resolveTopKey((String) key);
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return null != input.get(key);
+        }
+
+        @Override
+        public int size() {
+            return input.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (!fullyResolved) {
+                synchronized (resolution) {
+                    for (String key : input.keySet()) {
+                        resolution.resolveTopKey(key);
+                    }
+                }
+                fullyResolved = true;
+            }
+            return Collections.unmodifiableMap(resolved).entrySet();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package mgurov.spring.impl;
+
+import com.google.common.collect.Maps;
+import mgurov.spring.CircularReferenceException;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Same squashing as {@link SimpleMapValuesResolver} but the resolved value of each key is remembered once computed, so a key
+ * referenced from thousands of others gets parsed and expanded only once. Circular references are detected the same way by
+ * keeping track of the references being resolved at the moment.
+ * <br/>
+ * The {@link ResolutionLimits} are checked upon every part appended. As a memoized key isn't expanded again, the depth of
+ * the references of each key is remembered to know the depth of the keys referencing it.
+ */
+public class MemoizingMapValuesResolver implements MapValuesResolver {
+
+    private final PropertyValueParser propertyValueParser;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+
+    public MemoizingMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, ResolutionInstrumentation.NONE);
+    }
+
+    public MemoizingMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public MemoizingMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+        this.propertyValueParser = propertyValueParser;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+    }
+
+    @Override
+    public Map<String, String> merge(Map<String, String> input) {
+        final Resolution resolution = new Resolution(propertyValueParser, instrumentation, limits, input, Maps.<String, String>newHashMap());
+        for (String key : input.keySet()) {
+            resolution.resolveTopKey(key);
+        }
+        return resolution.resolved;
+    }
+
+    /**
+     * Resolves the keys on demand remembering the results.
+     */
+    static class Resolution {
+        private final PropertyValueParser propertyValueParser;
+        private final ResolutionInstrumentation instrumentation;
+        private final ResolutionLimits limits;
+        private final Map<String, String> originalMap;
+        private final Map<String, String> resolved;
+        private final Set<String> visitedReferences = newHashSet();
+        /**
+         * the length of the longest chain of references down from each resolved key, null unless the depth is limited
+         */
+        private final Map<String, Integer> depths;
+        /**
+         * the depth of the deepest reference of the key being resolved plus one
+         */
+        private int deepest;
+        /**
+         * of the values resolved so far
+         */
+        private long totalLength;
+
+        Resolution(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, Map<String, String> originalMap, Map<String, String> resolved) {
+            this(propertyValueParser, instrumentation, ResolutionLimits.NONE, originalMap, resolved);
+        }
+
+        /**
+         * @param resolved where to keep the resolved values
+         */
+        Resolution(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits, Map<String, String> originalMap, Map<String, String> resolved) {
+            this.propertyValueParser = propertyValueParser;
+            this.instrumentation = instrumentation;
+            this.limits = limits;
+            this.originalMap = originalMap;
+            this.resolved = resolved;
+            depths = limits.getMaxDepth() == Integer.MAX_VALUE ? null : Maps.<String, Integer>newHashMap();
+        }
+
+        Map<String, String> getResolved() {
+            return resolved;
+        }
+
+        /**
+         * {@link #resolveKey(String)} reporting the time taken
+         */
+        String resolveTopKey(String key) {
+            if (!instrumentation.isEnabled()) {
+                return resolveKey(key);
+            }
+            final long start = System.nanoTime();
+            final String value = resolveKey(key);
+            instrumentation.onKeyResolved(key, System.nanoTime() - start);
+            return value;
+        }
+
+        /**
+         * @param key present in the original map
+         */
+        String resolveKey(String key) {
+            String value = resolved.get(key);
+            if (null != value) {
+                if (null != depths) {
+                    deepest = Math.max(deepest, depths.get(key) + 1);
+                }
+                return value;
+            }
+            if (!visitedReferences.add(key)) {
+                throw new CircularReferenceException(key);
+            }
+            instrumentation.onExpansion(key, visitedReferences.size() - 1);
+            limits.checkDepth(key, visitedReferences.size() - 1);
+            instrumentation.onParse();
+            final int outer = deepest;
+            deepest = 0;
+            try {
+                value = resolveString(key, originalMap.get(key));
+            } finally {
+                visitedReferences.remove(key);
+            }
+            if (null != depths) {
+                limits.checkDepth(key, deepest);
+                depths.put(key, deepest);
+            }
+            deepest = Math.max(outer, deepest + 1);
+            totalLength += value.length();
+            limits.checkTotalLength(totalLength);
+            resolved.put(key, value);
+            return value;
+        }
+
+        /**
+         * @param key whose value is being resolved, the value could be a part of it
+         * @return the value with the placeholders resolved, not remembered
+         */
+        private String resolveString(String key, String value) {
+            return propertyValueParser.parse(value, new MyOnStringPartParsedEventListener(this, key)).result.toString();
+        }
+
+        /**
+         * @return resolved value of the key or null if missing
+         */
+        private String lookUp(String key) {
+            final boolean hit = null != originalMap.get(key);
+            instrumentation.onPlaceholder(key, hit);
+            return hit ? resolveKey(key) : null;
+        }
+    }
+
+    private static class MyOnStringPartParsedEventListener implements PropertyValueParser.OnStringPartParsedEventListener {
+        private final Resolution resolution;
+        private final String key;
+        private StringBuilder result;
+
+        public MyOnStringPartParsedEventListener(Resolution resolution, String key) {
+            this.resolution = resolution;
+            this.key = key;
+        }
+
+        @Override
+        public void onStart() {
+            result = new StringBuilder();
+        }
+
+        @Override
+        public void onResolvedStringPart(String value, int start, int end) {
+            append(value, start, end);
+        }
+
+        @Override
+        public void onPlaceholderPart(String keyReference, String value, int start, int end) {
+            final String resolved = resolution.lookUp(keyReference);
+            if (null != resolved) {
+                append(resolved, 0, resolved.length());
+            } else {
+                append(value, start, end);
+            }
+        }
+
+        @Override
+        public void onExpressionPart(String keyExpression, String defaultValue, String value, int start, int end) {
+            String resolved = resolution.lookUp(resolution.resolveString(key, keyExpression));
+            if (null == resolved && null != defaultValue) {
+                resolved = resolution.resolveString(key, defaultValue);
+            }
+            if (null != resolved) {
+                append(resolved, 0, resolved.length());
+            } else {
+                append(value, start, end);
+            }
+        }
+
+        private void append(String value, int start, int end) {
+            resolution.limits.checkLength(key, (long) result.length() + end - start, resolution.totalLength);
+            result.append(value, start, end);
+        }
+
+        @Override
+        public void onEnd() {
+        }
+    }
+}
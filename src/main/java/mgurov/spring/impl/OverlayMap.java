@@ -0,0 +1,122 @@
+package mgurov.spring.impl;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Read-only map of layers, the values of the later layers taking precedence over the ones of the earlier layers, none being copied.
+ * The first layer is supposed to be the largest one.
+ */
+final class OverlayMap extends AbstractMap<String, String> {
+
+    /**
+     * the entries of the layers are those of their maps, could be written through
+     */
+    private static final Function<Entry<String, String>, Entry<String, String>> READ_ONLY = new Function<Entry<String, String>, Entry<String, String>>() {
+        @Override
+        public Entry<String, String> apply(Entry<String, String> entry) {
+            return Maps.immutableEntry(entry.getKey(), entry.getValue());
+        }
+    };
+
+    /**
+     * the top most layer first
+     */
+    private final List<Map<String, String>> layers;
+    private final int size;
+
+    OverlayMap(Map<String, String> base, Map<String, String> overlay) {
+        this(Arrays.asList(base, overlay));
+    }
+
+    /**
+     * @param layers with no null values, at least one
+     */
+    OverlayMap(List<? extends Map<String, String>> layers) {
+        this.layers = newArrayList(layers);
+        Collections.reverse(this.layers);
+        final Set<String> overlaidKeys = newHashSet();
+        for (Map<String, String> layer : layers.subList(1, layers.size())) {
+            overlaidKeys.addAll(layer.keySet());
+        }
+        final Map<String, String> base = layers.get(0);
+        int added = 0;
+        for (String key : overlaidKeys) {
+            if (!base.containsKey(key)) {
+                added++;
+            }
+        }
+        size = base.size() + added;
+    }
+
+    @Override
+    public String get(Object key) {
+        for (Map<String, String> layer : layers) {
+            final String value = layer.get(key);
+            if (null != value) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (Map<String, String> layer : layers) {
+            if (layer.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                final List<Iterable<Entry<String, String>>> visible = newArrayListWithCapacity(layers.size());
+                for (int i = 0; i < layers.size(); i++) {
+                    final List<Map<String, String>> above = layers.subList(0, i);
+                    visible.add(Iterables.filter(layers.get(i).entrySet(), new Predicate<Entry<String, String>>() {
+                        @Override
+                        public boolean apply(Entry<String, String> entry) {
+                            for (Map<String, String> layer : above) {
+                                if (layer.containsKey(entry.getKey())) {
+                                    return false;
+                                }
+                            }
+                            return true;
+                        }
+                    }));
+                }
+                return Iterables.unmodifiableIterable(Iterables.transform(Iterables.concat(visible), READ_ONLY)).iterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,164 @@
+package mgurov.spring.impl;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+
+/**
+ * Parallel flavour of the {@link TopologicalMapValuesResolver}. The values get parsed by a {@link ForkJoinPool} splitting the
+ * key set into chunks, then the {@link ReferenceGraph} groups the keys by the depth of their references: keys of the same depth
+ * never reference each other, so each group is resolved in parallel once the groups underneath are done. The result is
+ * the same as of the sequential algorithms, circular references are reported the same way the topological one does.
+ */
+public class ParallelMapValuesResolver implements MapValuesResolver {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final PropertyValueParser propertyValueParser;
+    private final int parallelism;
+    private final int chunkSize;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+
+    /**
+     * Uses as many threads as there are processors available.
+     */
+    public ParallelMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelMapValuesResolver(PropertyValueParser propertyValueParser, int parallelism) {
+        this(propertyValueParser, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize number of keys below which the work isn't split any further
+     */
+    public ParallelMapValuesResolver(PropertyValueParser propertyValueParser, int parallelism, int chunkSize) {
+        this(propertyValueParser, parallelism, chunkSize, ResolutionInstrumentation.NONE);
+    }
+
+    public ParallelMapValuesResolver(PropertyValueParser propertyValueParser, int parallelism, int chunkSize, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, parallelism, chunkSize, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public ParallelMapValuesResolver(PropertyValueParser propertyValueParser, int parallelism, int chunkSize, ResolutionInstrumentation instrumentation,
+                                     ResolutionLimits limits) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        this.propertyValueParser = propertyValueParser;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+    }
+
+    @Override
+    public Map<String, String> merge(Map<String, String> input) {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            final ReferenceGraph graph = new ReferenceGraph(parse(pool, input), ValueTemplate.NO_VALUES, instrumentation, limits);
+            for (List<ReferenceGraph.Node> sameDepth : groupByDepth(graph.getOrdered())) {
+                final Resolve resolve = new Resolve(graph, sameDepth, 0, sameDepth.size());
+                if (sameDepth.size() <= chunkSize) {
+                    resolve.compute();
+                } else {
+                    pool.invoke(resolve);
+                }
+            }
+            return graph.getResolvedValues();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Map<String, ValueTemplate> parse(ForkJoinPool pool, Map<String, String> input) {
+        final String[] values = new String[input.size()];
+        final String[] keys = new String[values.length];
+        int i = 0;
+        for (Map.Entry<String, String> entry : input.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i++] = entry.getValue();
+        }
+
+        final ValueTemplate[] templates = new ValueTemplate[values.length];
+        pool.invoke(new Parse(values, templates, 0, values.length));
+
+        final Map<String, ValueTemplate> result = newHashMapWithExpectedSize(keys.length);
+        for (i = 0; i < keys.length; i++) {
+            result.put(keys[i], templates[i]);
+        }
+        return result;
+    }
+
+    private static List<List<ReferenceGraph.Node>> groupByDepth(List<ReferenceGraph.Node> ordered) {
+        final List<List<ReferenceGraph.Node>> result = newArrayList();
+        for (ReferenceGraph.Node node : ordered) {
+            while (result.size() <= node.getDepth()) {
+                result.add(Lists.<ReferenceGraph.Node>newArrayList());
+            }
+            result.get(node.getDepth()).add(node);
+        }
+        return result;
+    }
+
+    private class Parse extends RecursiveAction {
+        private final String[] values;
+        private final ValueTemplate[] templates;
+        private final int from;
+        private final int to;
+
+        private Parse(String[] values, ValueTemplate[] templates, int from, int to) {
+            this.values = values;
+            this.templates = templates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    instrumentation.onParse();
+                    templates[i] = ValueTemplate.compile(propertyValueParser, values[i]);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new Parse(values, templates, from, middle), new Parse(values, templates, middle, to));
+        }
+    }
+
+    private class Resolve extends RecursiveAction {
+        private final ReferenceGraph graph;
+        private final List<ReferenceGraph.Node> nodes;
+        private final int from;
+        private final int to;
+
+        private Resolve(ReferenceGraph graph, List<ReferenceGraph.Node> nodes, int from, int to) {
+            this.graph = graph;
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    graph.resolve(nodes.get(i));
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new Resolve(graph, nodes, from, middle), new Resolve(graph, nodes, middle, to));
+        }
+    }
+}
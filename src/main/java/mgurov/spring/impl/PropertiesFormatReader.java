@@ -0,0 +1,277 @@
+package mgurov.spring.impl;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Reads the {@link java.util.Properties#load(InputStream)} format, i.e. ISO 8859-1 encoded with the same escapes, comments and
+ * continuation lines (as of Java 9, where a comment could also start right after a continued empty line), straight into a map with neither the synchronized {@link java.util.Hashtable} of the {@link java.util.Properties}
+ * nor the copying afterwards. Files are read into the heap at once through their channel rather than mapped: a mapped file
+ * can't be replaced or deleted on Windows until the mapping gets garbage collected, which would break editors saving the
+ * files being watched, see {@link mgurov.spring.ReloadableProperties}.
+ */
+public final class PropertiesFormatReader {
+
+    private PropertiesFormatReader() {
+    }
+
+    public static Map<String, String> read(URL url) throws IOException {
+        final Map<String, String> result = newHashMap();
+        read(url, result);
+        return result;
+    }
+
+    public static void read(URL url, Map<String, String> target) throws IOException {
+        final File file = ResourceLocations.toFile(url);
+        if (null != file) {
+            read(file, target);
+            return;
+        }
+        final InputStream is = ResourceLocations.open(url);
+        try {
+            read(is, target);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * @param is read to the end, left open
+     */
+    public static void read(InputStream is, Map<String, String> target) throws IOException {
+        read(ByteBuffer.wrap(ByteStreams.toByteArray(is)), target);
+    }
+
+    public static void read(File file, Map<String, String> target) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large: " + size + " bytes");
+            }
+            final ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                //keep on reading
+            }
+            bytes.flip();
+            read(bytes, target);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param bytes read from the current position up to the limit
+     * @throws IllegalArgumentException upon a malformed \\uxxxx escape, as the {@link java.util.Properties} does
+     */
+    public static void read(ByteBuffer bytes, Map<String, String> target) {
+        final LineReader lines = new LineReader(bytes);
+        int length;
+        while ((length = lines.readLine()) >= 0) {
+            final char[] line = lines.line;
+            int keyLength = 0;
+            int valueStart = length;
+            boolean hasSeparator = false;
+            boolean precedingBackslash = false;
+            while (keyLength < length) {
+                final char c = line[keyLength];
+                if ((c == '=' || c == ':') && !precedingBackslash) {
+                    valueStart = keyLength + 1;
+                    hasSeparator = true;
+                    break;
+                }
+                if (isWhitespace(c) && !precedingBackslash) {
+                    valueStart = keyLength + 1;
+                    break;
+                }
+                precedingBackslash = c == '\\' && !precedingBackslash;
+                keyLength++;
+            }
+            while (valueStart < length) {
+                final char c = line[valueStart];
+                if (!isWhitespace(c)) {
+                    if (!hasSeparator && (c == '=' || c == ':')) {
+                        hasSeparator = true;
+                    } else {
+                        break;
+                    }
+                }
+                valueStart++;
+            }
+            target.put(unescape(line, 0, keyLength, lines), unescape(line, valueStart, length, lines));
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static String unescape(char[] in, int off, int end, LineReader buffers) {
+        int backslash = off;
+        while (backslash < end && in[backslash] != '\\') {
+            backslash++;
+        }
+        if (backslash == end) {
+            return new String(in, off, end - off);
+        }
+        final char[] out = buffers.unescaped(end - off);
+        int length = backslash - off;
+        System.arraycopy(in, off, out, 0, length);
+        off = backslash;
+        while (off < end) {
+            char c = in[off++];
+            if (c == '\\' && off < end) {
+                c = in[off++];
+                if (c == 'u') {
+                    if (off > end - 4) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = hexDigit(in[off++]);
+                        if (digit < 0) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    c = (char) value;
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'f') {
+                    c = '\f';
+                }
+            }
+            out[length++] = c;
+        }
+        return new String(out, 0, length);
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Joins the natural lines into the logical ones the {@link java.util.Properties} way: leading whitespaces skipped, comment
+     * and blank lines ignored, lines ending with an odd number of backslashes continued.
+     */
+    private static final class LineReader {
+        private final ByteBuffer bytes;
+        private char[] line = new char[1024];
+        private char[] unescaped = new char[1024];
+
+        private LineReader(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the length of the next logical line or -1 if none left
+         */
+        int readLine() {
+            int length = 0;
+            boolean skipWhitespace = true;
+            boolean appendedLineBegin = false;
+            boolean precedingBackslash = false;
+
+            while (true) {
+                if (!bytes.hasRemaining()) {
+                    if (length == 0) {
+                        return -1;
+                    }
+                    return precedingBackslash ? length - 1 : length;
+                }
+                final char c = (char) (bytes.get() & 0xFF);
+
+                if (skipWhitespace) {
+                    if (isWhitespace(c)) {
+                        continue;
+                    }
+                    if (!appendedLineBegin && (c == '\r' || c == '\n')) {
+                        continue;
+                    }
+                    skipWhitespace = false;
+                    appendedLineBegin = false;
+                }
+                if (length == 0 && (c == '#' || c == '!')) {
+                    skipComment();
+                    skipWhitespace = true;
+                    continue;
+                }
+
+                if (c != '\n' && c != '\r') {
+                    if (length == line.length) {
+                        line = grow(line);
+                    }
+                    line[length++] = c;
+                    precedingBackslash = c == '\\' && !precedingBackslash;
+                    continue;
+                }
+
+                if (length == 0) {
+                    skipWhitespace = true;
+                    continue;
+                }
+                if (!bytes.hasRemaining()) {
+                    //a backslash followed by the very last line break makes an empty line, as Properties has it
+                    return precedingBackslash ? length - 1 : length;
+                }
+                if (!precedingBackslash) {
+                    return length;
+                }
+                //the backslash isn't a part of the continued line
+                length--;
+                skipWhitespace = true;
+                appendedLineBegin = true;
+                precedingBackslash = false;
+                if (c == '\r' && bytes.hasRemaining() && bytes.get(bytes.position()) == '\n') {
+                    bytes.get();
+                }
+            }
+        }
+
+        private void skipComment() {
+            while (bytes.hasRemaining()) {
+                final byte b = bytes.get();
+                if (b == '\r' || b == '\n') {
+                    return;
+                }
+            }
+        }
+
+        char[] unescaped(int length) {
+            if (unescaped.length < length) {
+                unescaped = new char[Math.max(length, unescaped.length * 2)];
+            }
+            return unescaped;
+        }
+
+        private static char[] grow(char[] buffer) {
+            final char[] result = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, result, 0, buffer.length);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package mgurov.spring.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the resolved values as <em>key=value</em> lines escaped the way {@link java.util.Properties#store(java.io.OutputStream, String)}
+ * does, so the output could be read back by {@link java.util.Properties#load(java.io.InputStream)} or {@link PropertiesFormatReader}.
+ * The writer is neither flushed nor closed.
+ */
+public class PropertiesWriterSink implements ResolvedValuesSink {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final Writer writer;
+    private final boolean escapeUnicode;
+    private final StringBuilder line = new StringBuilder();
+
+    public PropertiesWriterSink(Writer writer) {
+        this(writer, true);
+    }
+
+    /**
+     * @param escapeUnicode whether to write the characters out of the printable ASCII range as \\uxxxx escapes,
+     *                      as required to read the output back as ISO 8859-1
+     */
+    public PropertiesWriterSink(Writer writer, boolean escapeUnicode) {
+        this.writer = writer;
+        this.escapeUnicode = escapeUnicode;
+    }
+
+    @Override
+    public void accept(String key, String value) throws IOException {
+        line.setLength(0);
+        escape(key, true);
+        line.append('=');
+        escape(value, false);
+        line.append('\n');
+        writer.append(line);
+    }
+
+    private void escape(String value, boolean escapeSpace) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c > 61 && c < 127) {
+                if (c == '\\') {
+                    line.append('\\');
+                }
+                line.append(c);
+                continue;
+            }
+            switch (c) {
+                case ' ':
+                    if (i == 0 || escapeSpace) {
+                        line.append('\\');
+                    }
+                    line.append(' ');
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\f':
+                    line.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    line.append('\\').append(c);
+                    break;
+                default:
+                    if ((c < 0x0020 || c > 0x007e) && escapeUnicode) {
+                        line.append("\\u")
+                                .append(HEX_DIGITS[(c >> 12) & 0xF])
+                                .append(HEX_DIGITS[(c >> 8) & 0xF])
+                                .append(HEX_DIGITS[(c >> 4) & 0xF])
+                                .append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+    }
+}
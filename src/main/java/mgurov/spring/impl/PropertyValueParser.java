@@ -5,9 +5,35 @@ import java.util.regex.Pattern;
 
 /**
  * Parses the value to find placeholders and allow caller handle (resolve) them.
+ * The parts are reported as offsets within the parsed value so the caller could append them without creating intermediate substrings.
+ * <br/>
+ * Placeholders could be nested, e.g. <em>${db.${env}.url}</em> (not in the {@link Mode#REGEX} mode), and, once a value separator is
+ * given, carry a default value used in case the key is missing, e.g. <em>${timeout:30}</em>. Such placeholders are reported by
+ * {@link OnStringPartParsedEventListener#onExpressionPart(String, String, String, int, int)} for the caller to resolve the key
+ * and, if need be, the default value first.
  */
 public class PropertyValueParser {
 
+    public enum Mode {
+        /**
+         * Linear scan for the prefix and the suffix by {@link String#indexOf(String, int)}. The default.
+         */
+        SCANNER,
+        /**
+         * The original regular expression based parsing, kept as a fallback.
+         */
+        REGEX
+    }
+
+    /**
+     * Spring's default value separator
+     */
+    public static final String DEFAULT_VALUE_SEPARATOR = ":";
+
+    private final String prefix;
+    private final String suffix;
+    private final String valueSeparator;
+    private final Mode mode;
     private final Pattern pattern;
 
     public PropertyValueParser() {
@@ -15,19 +41,48 @@ public class PropertyValueParser {
     }
 
     public PropertyValueParser(String prefix, String suffix) {
-        pattern = Pattern.compile(String.format("(%s(.*?)%s)", Pattern.quote(prefix), Pattern.quote(suffix)));
+        this(prefix, suffix, Mode.SCANNER);
+    }
+
+    public PropertyValueParser(String prefix, String suffix, Mode mode) {
+        this(prefix, suffix, null, mode);
+    }
+
+    /**
+     * @param valueSeparator separates the key from the default value, null (the default) for no default values
+     */
+    public PropertyValueParser(String prefix, String suffix, String valueSeparator, Mode mode) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.valueSeparator = valueSeparator;
+        this.mode = mode;
+        pattern = mode == Mode.REGEX ? Pattern.compile(String.format("(%s(.*?)%s)", Pattern.quote(prefix), Pattern.quote(suffix))) : null;
     }
 
     public static interface OnStringPartParsedEventListener {
         void onStart();
 
-        void onResolvedStringPart(String part);
+        /**
+         * @param value the value being parsed, the part spans from start (inclusive) to end (exclusive)
+         */
+        void onResolvedStringPart(String value, int start, int end);
 
         /**
          * @param keyReference the bare key without prefix and suffix
-         * @param placeholder original placeholder string with prefix and suffix, e.g. ${key}
+         * @param value the value being parsed, the original placeholder with prefix and suffix, e.g. ${key}, spans from start (inclusive) to end (exclusive)
+         */
+        void onPlaceholderPart(String keyReference, String value, int start, int end);
+
+        /**
+         * A placeholder with nested placeholders in the key or with a default value. The default value is supposed to be
+         * used only if the key is missing, the original placeholder is supposed to be left intact if there is no default value either.
+         *
+         * @param keyExpression the key, could contain placeholders to be resolved first
+         * @param defaultValue null if none, could contain placeholders
+         * @param value the value being parsed, the original placeholder spans from start (inclusive) to end (exclusive)
          */
-        void onPlaceholderPart(String keyReference, String placeholder);
+        void onExpressionPart(String keyExpression, String defaultValue, String value, int start, int end);
+
         void onEnd();
     }
 
@@ -39,22 +94,112 @@ public class PropertyValueParser {
 
         listener.onStart();
 
+        final int unclaimedPosition = mode == Mode.REGEX ? parseWithRegex(value, listener) : scan(value, listener);
+
+        if (unclaimedPosition < value.length()) {
+            listener.onResolvedStringPart(value, unclaimedPosition, value.length());
+        }
+
+        listener.onEnd();
+        return listener;
+    }
+
+    /**
+     * @return the position the trailing unclaimed part of the value starts from
+     */
+    private int scan(String value, OnStringPartParsedEventListener listener) {
+        int unclaimedPosition = 0;
+        int placeholderStart;
+        while ((placeholderStart = value.indexOf(prefix, unclaimedPosition)) >= 0) {
+            final int keyStart = placeholderStart + prefix.length();
+            final int keyEnd = findPlaceholderEnd(value, keyStart);
+            if (keyEnd < 0) {
+                break;
+            }
+            if (placeholderStart > unclaimedPosition) {
+                listener.onResolvedStringPart(value, unclaimedPosition, placeholderStart);
+            }
+            unclaimedPosition = keyEnd + suffix.length();
+
+            final int nestedStart = value.indexOf(prefix, keyStart);
+            final boolean nested = nestedStart >= 0 && nestedStart < keyEnd;
+            notifyPlaceholder(listener, value, keyStart, keyEnd, nested, placeholderStart, unclaimedPosition);
+        }
+        return unclaimedPosition;
+    }
+
+    /**
+     * @return the position of the suffix matching the prefix taking the nested placeholders into account, -1 if not terminated
+     */
+    private int findPlaceholderEnd(String value, int keyStart) {
+        int depth = 0;
+        int position = keyStart;
+        while (true) {
+            final int close = value.indexOf(suffix, position);
+            if (close < 0) {
+                return -1;
+            }
+            final int open = value.indexOf(prefix, position);
+            if (open >= 0 && open < close) {
+                depth++;
+                position = open + prefix.length();
+            } else if (depth == 0) {
+                return close;
+            } else {
+                depth--;
+                position = close + suffix.length();
+            }
+        }
+    }
+
+    private void notifyPlaceholder(OnStringPartParsedEventListener listener, String value, int keyStart, int keyEnd, boolean nested, int start, int end) {
+        final int separatorStart = null == valueSeparator ? -1 : findSeparator(value, keyStart, keyEnd);
+        if (separatorStart >= 0) {
+            listener.onExpressionPart(value.substring(keyStart, separatorStart), value.substring(separatorStart + valueSeparator.length(), keyEnd), value, start, end);
+        } else if (nested) {
+            listener.onExpressionPart(value.substring(keyStart, keyEnd), null, value, start, end);
+        } else {
+            listener.onPlaceholderPart(value.substring(keyStart, keyEnd), value, start, end);
+        }
+    }
+
+    /**
+     * @return the position of the first value separator outside of the nested placeholders or -1 if none
+     */
+    private int findSeparator(String value, int keyStart, int keyEnd) {
+        final int first = value.indexOf(valueSeparator, keyStart);
+        if (first < 0 || first >= keyEnd) {
+            return -1;
+        }
+        int depth = 0;
+        int position = keyStart;
+        while (position < keyEnd) {
+            if (value.startsWith(prefix, position)) {
+                depth++;
+                position += prefix.length();
+            } else if (depth > 0 && value.startsWith(suffix, position)) {
+                depth--;
+                position += suffix.length();
+            } else if (depth == 0 && value.startsWith(valueSeparator, position)) {
+                return position;
+            } else {
+                position++;
+            }
+        }
+        return -1;
+    }
+
+    private int parseWithRegex(String value, OnStringPartParsedEventListener listener) {
         final Matcher m = pattern.matcher(value);
         int unclaimedPosition = 0;
         while (m.find()) {
             if (m.start() > unclaimedPosition) {
-                listener.onResolvedStringPart(value.substring(unclaimedPosition, m.start()));
+                listener.onResolvedStringPart(value, unclaimedPosition, m.start());
             }
             unclaimedPosition = m.end();
 
-            listener.onPlaceholderPart(m.group(2), m.group(1));
-        }
-
-        if (unclaimedPosition < value.length() - 1) {
-            listener.onResolvedStringPart(value.substring(unclaimedPosition));
+            notifyPlaceholder(listener, value, m.start(2), m.end(2), false, m.start(), m.end());
         }
-
-        listener.onEnd();
-        return listener;
+        return unclaimedPosition;
     }
 }
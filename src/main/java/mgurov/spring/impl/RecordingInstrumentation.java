@@ -0,0 +1,66 @@
+package mgurov.spring.impl;
+
+import com.google.common.util.concurrent.AtomicLongMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe accumulator of the resolution statistics. Could be shared between several resolutions, the {@link #snapshot()}
+ * taken at any moment.
+ */
+public class RecordingInstrumentation implements ResolutionInstrumentation {
+
+    private final AtomicLong parseCalls = new AtomicLong();
+    private final AtomicLong placeholderHits = new AtomicLong();
+    private final AtomicLong placeholderMisses = new AtomicLong();
+    private final AtomicInteger maxReferenceDepth = new AtomicInteger();
+    private final AtomicLongMap<String> references = AtomicLongMap.create();
+    private final AtomicLongMap<String> expansions = AtomicLongMap.create();
+    private final AtomicLongMap<String> resolutionNanos = AtomicLongMap.create();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void onParse() {
+        parseCalls.incrementAndGet();
+    }
+
+    @Override
+    public void onPlaceholder(String keyReference, boolean hit) {
+        if (hit) {
+            placeholderHits.incrementAndGet();
+            references.incrementAndGet(keyReference);
+        } else {
+            placeholderMisses.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onExpansion(String key, int depth) {
+        expansions.incrementAndGet(key);
+        int max;
+        while (depth > (max = maxReferenceDepth.get()) && !maxReferenceDepth.compareAndSet(max, depth)) {
+            //retry
+        }
+    }
+
+    @Override
+    public void onKeyResolved(String key, long nanos) {
+        resolutionNanos.addAndGet(key, nanos);
+    }
+
+    public ResolutionStatistics snapshot() {
+        return new ResolutionStatistics(
+                parseCalls.get(),
+                placeholderHits.get(),
+                placeholderMisses.get(),
+                maxReferenceDepth.get(),
+                references.asMap(),
+                expansions.asMap(),
+                resolutionNanos.asMap());
+    }
+}
@@ -0,0 +1,270 @@
+package mgurov.spring.impl;
+
+import mgurov.spring.CircularReferenceException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Graph of keys referencing each other sorted in the order of dependencies by an iterative Tarjan's strongly connected components
+ * pass. Tarjan's algorithm completes a component only after all the components it references, so the resulting order
+ * allows resolving every key right away from the already resolved values without any recursion.
+ * <br/>
+ * All the circular references are collected over the whole graph and reported together by a single {@link CircularReferenceException}.
+ * <br/>
+ * The keys looked up dynamically by the expressions (see {@link ValueTemplate#isDynamic()}) aren't part of the order, those
+ * are resolved on demand instead, the circular references among them being reported upon the resolution.
+ * <br/>
+ * The depth of the references is checked against the {@link ResolutionLimits} once the graph is sorted, so a too deep graph
+ * is rejected before any value gets resolved, the lengths are checked upon the resolution of each key.
+ */
+final class ReferenceGraph implements ValueTemplate.ResolvedValues {
+
+    private static final int UNVISITED = -1;
+
+    private final Map<String, Node> nodes;
+    private final List<Node> ordered;
+    private final ValueTemplate.ResolvedValues outside;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+    private final AtomicLong totalLength = new AtomicLong();
+    private boolean dynamic;
+
+    ReferenceGraph(Map<String, ValueTemplate> templates, ValueTemplate.ResolvedValues outside) {
+        this(templates, outside, ResolutionInstrumentation.NONE);
+    }
+
+    /**
+     * @param outside resolved values of the keys referenced but not present among the templates
+     */
+    ReferenceGraph(Map<String, ValueTemplate> templates, ValueTemplate.ResolvedValues outside, ResolutionInstrumentation instrumentation) {
+        this(templates, outside, instrumentation, ResolutionLimits.NONE);
+    }
+
+    ReferenceGraph(Map<String, ValueTemplate> templates, ValueTemplate.ResolvedValues outside, ResolutionInstrumentation instrumentation,
+                   ResolutionLimits limits) {
+        this.outside = outside;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+        nodes = newHashMapWithExpectedSize(templates.size());
+        for (Map.Entry<String, ValueTemplate> entry : templates.entrySet()) {
+            nodes.put(entry.getKey(), new Node(entry.getKey(), entry.getValue()));
+        }
+        for (Node node : nodes.values()) {
+            dynamic |= node.template.isDynamic();
+            for (String reference : node.template.getReferences()) {
+                final Node referenced = nodes.get(reference);
+                if (null != referenced) {
+                    node.dependencies.add(referenced);
+                }
+                if (instrumentation.isEnabled()) {
+                    instrumentation.onPlaceholder(reference, null != referenced || null != outside.get(reference));
+                }
+            }
+        }
+
+        ordered = newArrayListWithCapacity(nodes.size());
+        final List<List<String>> cycles = newArrayList();
+        int index = 0;
+        for (Node node : nodes.values()) {
+            if (node.index == UNVISITED) {
+                index = strongConnect(node, index, cycles);
+            }
+        }
+        if (!cycles.isEmpty()) {
+            throw new CircularReferenceException(cycles);
+        }
+    }
+
+    /**
+     * @return nodes in the order of dependencies, i.e. referenced keys go first
+     */
+    List<Node> getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Resolves all the nodes one by one in the order of dependencies.
+     */
+    ReferenceGraph resolve() {
+        for (Node node : ordered) {
+            resolve(node);
+        }
+        return this;
+    }
+
+    /**
+     * The dependencies of the node must have been resolved already. Safe to call concurrently for the nodes not depending
+     * on each other.
+     */
+    void resolve(Node node) {
+        instrumentation.onExpansion(node.key, node.depth);
+        final ValueTemplate.ResolvedValues resolvedValues = dynamic ? new OnDemandResolution(node) : this;
+        if (!instrumentation.isEnabled()) {
+            node.resolved = resolve(node.key, node.template, resolvedValues);
+            return;
+        }
+        final long start = System.nanoTime();
+        node.resolved = resolve(node.key, node.template, resolvedValues);
+        instrumentation.onKeyResolved(node.key, System.nanoTime() - start);
+    }
+
+    private String resolve(String key, ValueTemplate template, ValueTemplate.ResolvedValues resolvedValues) {
+        if (limits.isUnlimited()) {
+            return template.resolve(resolvedValues);
+        }
+        return template.resolve(resolvedValues, key, limits, totalLength);
+    }
+
+    Map<String, String> getResolvedValues() {
+        final Map<String, String> result = newHashMapWithExpectedSize(ordered.size());
+        for (Node node : ordered) {
+            result.put(node.key, node.resolved);
+        }
+        return result;
+    }
+
+    @Override
+    public String get(String key) {
+        final Node node = nodes.get(key);
+        return null == node ? outside.get(key) : node.resolved;
+    }
+
+    /**
+     * Resolves the dynamically looked up keys not resolved yet, keeping track of the keys being resolved to detect the circles.
+     * Every thread resolving a node gets its own, so at worst a key gets resolved twice by concurrent threads, to the same value.
+     */
+    private final class OnDemandResolution implements ValueTemplate.ResolvedValues {
+        private final Set<Node> resolving = newHashSet();
+
+        private OnDemandResolution(Node node) {
+            resolving.add(node);
+        }
+
+        @Override
+        public String get(String key) {
+            final Node node = nodes.get(key);
+            if (null == node) {
+                return outside.get(key);
+            }
+            if (null != node.resolved) {
+                return node.resolved;
+            }
+            if (!resolving.add(node)) {
+                throw new CircularReferenceException(key);
+            }
+            try {
+                instrumentation.onExpansion(key, resolving.size() - 1);
+                limits.checkDepth(key, resolving.size() - 1);
+                //counted towards the total once resolved in the order
+                node.resolved = limits.isUnlimited() ? node.template.resolve(this)
+                        : node.template.resolve(this, key, limits, new AtomicLong());
+            } finally {
+                resolving.remove(node);
+            }
+            return node.resolved;
+        }
+    }
+
+    /**
+     * Tarjan's strongly connected components algorithm with the recursion replaced by an explicit call stack.
+     *
+     * @return next free index
+     */
+    private int strongConnect(Node root, int index, List<List<String>> cycles) {
+        final Deque<Node> componentStack = new ArrayDeque<Node>();
+        final Deque<Node> callStack = new ArrayDeque<Node>();
+
+        index = visit(root, index, componentStack, callStack);
+        while (!callStack.isEmpty()) {
+            final Node node = callStack.peek();
+            if (node.nextDependency < node.dependencies.size()) {
+                final Node dependency = node.dependencies.get(node.nextDependency++);
+                if (dependency.index == UNVISITED) {
+                    index = visit(dependency, index, componentStack, callStack);
+                } else if (dependency.onStack) {
+                    node.lowLink = Math.min(node.lowLink, dependency.index);
+                }
+                continue;
+            }
+
+            callStack.pop();
+            if (!callStack.isEmpty()) {
+                final Node caller = callStack.peek();
+                caller.lowLink = Math.min(caller.lowLink, node.lowLink);
+            }
+            if (node.lowLink == node.index) {
+                completeComponent(node, componentStack, cycles);
+            }
+        }
+        return index;
+    }
+
+    private static int visit(Node node, int index, Deque<Node> componentStack, Deque<Node> callStack) {
+        node.index = index;
+        node.lowLink = index;
+        node.onStack = true;
+        componentStack.push(node);
+        callStack.push(node);
+        return index + 1;
+    }
+
+    private void completeComponent(Node root, Deque<Node> componentStack, List<List<String>> cycles) {
+        final List<String> component = newArrayList();
+        Node member;
+        do {
+            member = componentStack.pop();
+            member.onStack = false;
+            component.add(member.key);
+        } while (member != root);
+
+        if (component.size() > 1 || root.dependencies.contains(root)) {
+            cycles.add(component);
+        } else if (cycles.isEmpty()) {
+            //once a cycle is met we only keep on looking for other ones as the keys referencing it can't be resolved anyway
+            for (Node dependency : root.dependencies) {
+                root.depth = Math.max(root.depth, dependency.depth + 1);
+            }
+            limits.checkDepth(root.key, root.depth);
+            ordered.add(root);
+        }
+    }
+
+    static final class Node {
+        private final String key;
+        private final ValueTemplate template;
+        private final List<Node> dependencies = newArrayList();
+        /**
+         * the length of the longest chain of references down from this key, 0 if it references no other key
+         */
+        private int depth;
+        private String resolved;
+
+        private int index = UNVISITED;
+        private int lowLink;
+        private int nextDependency;
+        private boolean onStack;
+
+        private Node(String key, ValueTemplate template) {
+            this.key = key;
+            this.template = template;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package mgurov.spring.impl;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Forward and reverse references among the keys of a map, built by parsing every value once. Answers the "who uses this key"
+ * questions and prunes the map down to the keys some root keys, e.g. the placeholders used in the bean definitions, reach,
+ * so the keys nobody references are neither parsed nor resolved by the resolvers afterwards.
+ * <br/>
+ * The references within the default values count as the keys could be looked up. A key built of placeholders, e.g.
+ * <em>${db.${env}.url}</em>, could be any key, so once such a key is reached no key is pruned.
+ * <br/>
+ * Immutable and thread safe once built.
+ */
+public final class ReferenceIndex {
+
+    private final Map<String, String> input;
+    /**
+     * key to the keys it references, could be missing ones
+     */
+    private final SetMultimap<String, String> references = HashMultimap.create();
+    /**
+     * referenced key, could be missing, to the keys referencing it
+     */
+    private final SetMultimap<String, String> referencedBy = HashMultimap.create();
+    private final Set<String> computedKeys = newHashSet();
+
+    public ReferenceIndex(PropertyValueParser propertyValueParser, Map<String, String> input) {
+        this.input = input;
+        for (Map.Entry<String, String> entry : input.entrySet()) {
+            final String key = entry.getKey();
+            final ValueTemplate template = ValueTemplate.compile(propertyValueParser, entry.getValue());
+            for (String reference : template.getPossibleReferences()) {
+                references.put(key, reference);
+                referencedBy.put(reference, key);
+            }
+            if (template.hasComputedKeys()) {
+                computedKeys.add(key);
+            }
+        }
+    }
+
+    /**
+     * @return the keys referenced by the value of the key directly, the missing ones included
+     */
+    public Set<String> getReferences(String key) {
+        return Collections.unmodifiableSet(references.get(key));
+    }
+
+    /**
+     * @return the keys referencing the key directly, the key could be a missing one
+     */
+    public Set<String> getReferencedBy(String key) {
+        return Collections.unmodifiableSet(referencedBy.get(key));
+    }
+
+    /**
+     * @return the keys referencing the key directly or not, i.e. the ones to change once the key changes, the keys with
+     * computed references aside
+     */
+    public Set<String> getUsers(String key) {
+        final Set<String> result = closure(Collections.singleton(key), referencedBy, false);
+        result.remove(key);
+        return ImmutableSet.copyOf(result);
+    }
+
+    /**
+     * @return true if the key references keys built of placeholders, so its references are only known upon the resolution
+     */
+    public boolean hasComputedKeys(String key) {
+        return computedKeys.contains(key);
+    }
+
+    /**
+     * @return the present keys the roots reference directly or not, the present roots included, or all the keys if a key
+     * with computed references is reached
+     */
+    public Set<String> getReachable(Collection<String> roots) {
+        final Set<String> reached = closure(roots, references, true);
+        if (null == reached) {
+            return Collections.unmodifiableSet(input.keySet());
+        }
+        reached.retainAll(input.keySet());
+        return Collections.unmodifiableSet(reached);
+    }
+
+    /**
+     * @return new map of the input entries of the {@link #getReachable(Collection) reachable} keys, to be resolved instead of the input
+     */
+    public Map<String, String> prune(Collection<String> roots) {
+        final Set<String> reachable = getReachable(roots);
+        final Map<String, String> result = newHashMapWithExpectedSize(reachable.size());
+        for (String key : reachable) {
+            result.put(key, input.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * @return the keys given and the ones reached through the edges, null if a key with computed references is reached and stopping is asked for
+     */
+    private Set<String> closure(Collection<String> keys, SetMultimap<String, String> edges, boolean stopAtComputed) {
+        final Set<String> result = newHashSet(keys);
+        final Deque<String> toVisit = new ArrayDeque<String>(result);
+        while (!toVisit.isEmpty()) {
+            final String key = toVisit.pop();
+            if (stopAtComputed && computedKeys.contains(key)) {
+                return null;
+            }
+            for (String next : edges.get(key)) {
+                if (result.add(next)) {
+                    toVisit.push(next);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package mgurov.spring.impl;
+
+/**
+ * Receives the events of the resolution for the sake of the statistics, see {@link RecordingInstrumentation}.
+ * Implementations must be thread safe as the parallel algorithms report from many threads at once.
+ * <br/>
+ * The events carry no objects created specially for them so the {@link #NONE} costs nothing but a call.
+ */
+public interface ResolutionInstrumentation {
+
+    /**
+     * @return whether the timings should be taken at all
+     */
+    boolean isEnabled();
+
+    /**
+     * A value has been handed to the {@link PropertyValueParser}.
+     */
+    void onParse();
+
+    /**
+     * @param hit whether the key referenced is present and thus the placeholder going to be substituted
+     */
+    void onPlaceholder(String keyReference, boolean hit);
+
+    /**
+     * The value of the key has been expanded (resolved).
+     *
+     * @param depth the length of the chain of references leading to the value, 0 for the keys resolved on their own
+     */
+    void onExpansion(String key, int depth);
+
+    /**
+     * @param nanos time taken to resolve the key. Only reported when {@link #isEnabled()}.
+     */
+    void onKeyResolved(String key, long nanos);
+
+    ResolutionInstrumentation NONE = new ResolutionInstrumentation() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void onParse() {
+        }
+
+        @Override
+        public void onPlaceholder(String keyReference, boolean hit) {
+        }
+
+        @Override
+        public void onExpansion(String key, int depth) {
+        }
+
+        @Override
+        public void onKeyResolved(String key, long nanos) {
+        }
+    };
+}
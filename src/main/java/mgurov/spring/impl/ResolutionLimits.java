@@ -0,0 +1,96 @@
+package mgurov.spring.impl;
+
+import mgurov.spring.ResolutionLimitExceededException;
+
+/**
+ * Bounds of the resolution guarding against the placeholders blowing up exponentially, e.g. <em>a=${b}${b}</em>,
+ * <em>b=${c}${c}</em> and so on: the length of each resolved value, the length of all the resolved values together and
+ * the depth of the references, i.e. the length of the longest chain of references down from a key. The limits are checked
+ * along the way, before the strings exceeding them get built, a {@link ResolutionLimitExceededException} being thrown.
+ * <br/>
+ * Immutable.
+ */
+public final class ResolutionLimits {
+
+    public static final ResolutionLimits NONE = new ResolutionLimits(Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final int maxValueLength;
+    private final long maxTotalLength;
+    private final int maxDepth;
+
+    /**
+     * @param maxValueLength the longest resolved value allowed, in characters
+     * @param maxTotalLength the longest all the resolved values together are allowed to be, in characters
+     * @param maxDepth the longest chain of references allowed, 0 allowing no references at all
+     */
+    public ResolutionLimits(int maxValueLength, long maxTotalLength, int maxDepth) {
+        if (maxValueLength < 0 || maxTotalLength < 0 || maxDepth < 0) {
+            throw new IllegalArgumentException("negative limit");
+        }
+        this.maxValueLength = maxValueLength;
+        this.maxTotalLength = maxTotalLength;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxValueLength() {
+        return maxValueLength;
+    }
+
+    public long getMaxTotalLength() {
+        return maxTotalLength;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public boolean isUnlimited() {
+        return maxValueLength == Integer.MAX_VALUE && maxTotalLength == Long.MAX_VALUE && maxDepth == Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param length of the value, could be known before the value itself is built
+     */
+    void checkValueLength(String key, long length) {
+        if (length > maxValueLength) {
+            throw new ResolutionLimitExceededException(key, "resolved value of " + key + " exceeds the limit of "
+                    + maxValueLength + " characters: " + length + " at least");
+        }
+    }
+
+    void checkTotalLength(long total) {
+        if (total > maxTotalLength) {
+            throw new ResolutionLimitExceededException(null, "resolved values exceed the limit of " + maxTotalLength
+                    + " characters in total: " + total + " at least");
+        }
+    }
+
+    /**
+     * Checks the value being resolved against both the limit of its own and the total one.
+     *
+     * @param totalLength of the values resolved before the one being resolved
+     */
+    void checkLength(String key, long length, long totalLength) {
+        checkValueLength(key, length);
+        checkTotalLength(totalLength + length);
+    }
+
+    /**
+     * @param depth length of the chain of references met at the key
+     */
+    void checkDepth(String key, int depth) {
+        if (depth > maxDepth) {
+            throw new ResolutionLimitExceededException(key, "chain of references exceeds the limit of " + maxDepth
+                    + " levels deep at " + key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResolutionLimits{" +
+                "maxValueLength=" + maxValueLength +
+                ", maxTotalLength=" + maxTotalLength +
+                ", maxDepth=" + maxDepth +
+                '}';
+    }
+}
@@ -0,0 +1,118 @@
+package mgurov.spring.impl;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Keeps the parsed values, the reverse references and the resolved values of a map around so that changes to a few keys
+ * could be applied without resolving the whole map again: only the changed keys and the keys referencing them, directly or
+ * not, get resolved by the {@link TopologicalMapValuesResolver} engine against the rest of the already resolved values.
+ * The keys looking other keys up dynamically, i.e. by nested placeholders or in default values, are resolved again upon every change.
+ * <br/>
+ * Not thread safe.
+ */
+public class ResolutionSession {
+
+    private final PropertyValueParser propertyValueParser;
+    private final Map<String, ValueTemplate> templates = newHashMap();
+    private final Dependents dependents = new Dependents();
+    private final Map<String, String> resolved;
+
+    public ResolutionSession(PropertyValueParser propertyValueParser, Map<String, String> input) {
+        this.propertyValueParser = propertyValueParser;
+        for (Map.Entry<String, String> entry : input.entrySet()) {
+            final ValueTemplate template = ValueTemplate.compile(propertyValueParser, entry.getValue());
+            templates.put(entry.getKey(), template);
+            dependents.add(entry.getKey(), template);
+        }
+        resolved = TopologicalMapValuesResolver.resolve(templates, ValueTemplate.NO_VALUES);
+    }
+
+    /**
+     * @return read-only view of the resolved values reflecting the changes applied
+     */
+    public Map<String, String> getResolvedValues() {
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * Applies all the changes at once. In case of a {@link mgurov.spring.CircularReferenceException} the session is left intact.
+     *
+     * @return the keys whose resolved values have changed, including the added and the removed ones
+     */
+    public Set<String> apply(Changes changes) {
+        final Map<String, ValueTemplate> changedTemplates = newHashMapWithExpectedSize(changes.values.size());
+        for (Map.Entry<String, String> change : changes.values.entrySet()) {
+            changedTemplates.put(change.getKey(), null == change.getValue() ? null : ValueTemplate.compile(propertyValueParser, change.getValue()));
+        }
+
+        final Set<String> affected = dependents.affectedBy(changedTemplates.keySet());
+
+        final Map<String, ValueTemplate> toResolve = newHashMapWithExpectedSize(affected.size());
+        for (String key : affected) {
+            final ValueTemplate template = changedTemplates.containsKey(key) ? changedTemplates.get(key) : templates.get(key);
+            if (null != template) {
+                toResolve.put(key, template);
+            }
+        }
+
+        final Map<String, String> reResolved = TopologicalMapValuesResolver.resolve(toResolve, new ValueTemplate.ResolvedValues() {
+            @Override
+            public String get(String key) {
+                return affected.contains(key) ? null : resolved.get(key);
+            }
+        });
+
+        for (Map.Entry<String, ValueTemplate> change : changedTemplates.entrySet()) {
+            final String key = change.getKey();
+            final ValueTemplate previous = null == change.getValue() ? templates.remove(key) : templates.put(key, change.getValue());
+            if (null != previous) {
+                dependents.remove(key, previous);
+            }
+            if (null != change.getValue()) {
+                dependents.add(key, change.getValue());
+            }
+        }
+
+        final ImmutableSet.Builder<String> changed = ImmutableSet.builder();
+        for (String key : affected) {
+            final String value = reResolved.get(key);
+            final String previous = null == value ? resolved.remove(key) : resolved.put(key, value);
+            if (!Objects.equal(previous, value)) {
+                changed.add(key);
+            }
+        }
+        return changed.build();
+    }
+
+    /**
+     * Set of put and remove operations, the last operation on a key wins.
+     */
+    public static class Changes {
+        /**
+         * null value stands for removal
+         */
+        private final Map<String, String> values = newLinkedHashMap();
+
+        public Changes put(String key, String value) {
+            if (null == value) {
+                throw new NullPointerException("null value for " + key + ", use remove instead");
+            }
+            values.put(key, value);
+            return this;
+        }
+
+        public Changes remove(String key) {
+            values.put(key, null);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package mgurov.spring.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the statistics recorded by the {@link RecordingInstrumentation}.
+ */
+public class ResolutionStatistics {
+
+    private static final Ordering<Map.Entry<String, Long>> BY_COUNT = new Ordering<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> left, Map.Entry<String, Long> right) {
+            return left.getValue().compareTo(right.getValue());
+        }
+    };
+
+    private final long parseCalls;
+    private final long placeholderHits;
+    private final long placeholderMisses;
+    private final int maxReferenceDepth;
+    private final Map<String, Long> referenceCounts;
+    private final Map<String, Long> expansionCounts;
+    private final Map<String, Long> resolutionNanos;
+
+    ResolutionStatistics(long parseCalls, long placeholderHits, long placeholderMisses, int maxReferenceDepth,
+                         Map<String, Long> referenceCounts, Map<String, Long> expansionCounts, Map<String, Long> resolutionNanos) {
+        this.parseCalls = parseCalls;
+        this.placeholderHits = placeholderHits;
+        this.placeholderMisses = placeholderMisses;
+        this.maxReferenceDepth = maxReferenceDepth;
+        this.referenceCounts = ImmutableMap.copyOf(referenceCounts);
+        this.expansionCounts = ImmutableMap.copyOf(expansionCounts);
+        this.resolutionNanos = ImmutableMap.copyOf(resolutionNanos);
+    }
+
+    public long getParseCalls() {
+        return parseCalls;
+    }
+
+    /**
+     * @return number of placeholders met referencing the keys present
+     */
+    public long getPlaceholderHits() {
+        return placeholderHits;
+    }
+
+    /**
+     * @return number of placeholders met referencing missing keys, thus left intact
+     */
+    public long getPlaceholderMisses() {
+        return placeholderMisses;
+    }
+
+    /**
+     * @return the longest chain of references met. Not tracked by the BUILD_TREE algorithms.
+     */
+    public int getMaxReferenceDepth() {
+        return maxReferenceDepth;
+    }
+
+    /**
+     * @return key to the number of placeholders met referencing it
+     */
+    public Map<String, Long> getReferenceCounts() {
+        return referenceCounts;
+    }
+
+    /**
+     * @return the most referenced keys along with the number of references, the most referenced first
+     */
+    public List<Map.Entry<String, Long>> getMostReferencedKeys(int limit) {
+        return BY_COUNT.greatestOf(referenceCounts.entrySet(), limit);
+    }
+
+    /**
+     * @return key to the number of times its value has been expanded
+     */
+    public Map<String, Long> getExpansionCounts() {
+        return expansionCounts;
+    }
+
+    /**
+     * @return key to the time spent resolving it (including the references resolved on the way, if any)
+     */
+    public Map<String, Long> getResolutionNanos() {
+        return resolutionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ResolutionStatistics{" +
+                "parseCalls=" + parseCalls +
+                ", placeholderHits=" + placeholderHits +
+                ", placeholderMisses=" + placeholderMisses +
+                ", maxReferenceDepth=" + maxReferenceDepth +
+                ", mostReferencedKeys=" + getMostReferencedKeys(10) +
+                '}';
+    }
+}
@@ -2,11 +2,20 @@ package mgurov.spring.impl;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import mgurov.spring.CircularReferenceException;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
@@ -16,42 +25,285 @@ import static com.google.common.collect.Maps.newHashMap;
  * a composite containing resolved string and "futures" to be resolved. Could potentially be more efficient on large datasets
  * with deep nesting and high degree of key repetition. On the downside futures tend to hang even if overriding properties do not need them
  * which could probably be overidden careful use of {@link java.util.WeakHashMap}
- * This method has a flaw of complicated circular reference detection which hasn't been implemented.
+ * <br/>
+ * By default the tree is flattened into an immutable map right away, every shared part being stringified only once.
+ * The circular references are detected along the way. The {@link OutputMode#LIVE_VIEW} returns the tree itself wrapped as a map
+ * instead, with the flaw of the circular references not being detected. The {@link OutputMode#COMPACT} keeps the tree
+ * shape but trades the wrappers for plain arrays and deduplicated strings, see {@link CompactValuesMap}.
+ * <br/>
+ * The placeholders with nested placeholders or default values become {@link ExpressionPart}s choosing the referenced part
+ * only once the key is flattened.
+ * <br/>
+ * The {@link ResolutionLimits} are checked upon the flattening: the length and the depth of every part are measured from
+ * the ones of its sub parts before the part gets stringified, so a small tree of shared parts standing for a huge value is
+ * rejected before the value gets built. A value made of a single reference to a key parsed earlier is that key's part itself,
+ * so such aliases don't add to the depth. The limits aren't supported by the {@link OutputMode#LIVE_VIEW}.
+ * <br/>
+ * The tree of each merge is built within a {@link Build} of its own, so a single instance could be shared by concurrent merges.
  */
 public class ResolutionTree implements MapValuesResolver {
-    private final Map<String, EntryPart> keyDefinitions = newHashMap();
-    private final Map<String, FutureReference> futures = newHashMap();
+
+    public enum OutputMode {
+        /**
+         * Flattened into an immutable map, the default
+         */
+        MATERIALIZED,
+        /**
+         * A view stringifying the tree upon each read
+         */
+        LIVE_VIEW,
+        /**
+         * An immutable map keeping the values as segments shared between the keys, stringified upon each read
+         */
+        COMPACT
+    }
+
     private final PropertyValueParser propertyValueParser;
+    private final OutputMode outputMode;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
 
     public ResolutionTree(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, OutputMode.MATERIALIZED);
+    }
+
+    public ResolutionTree(PropertyValueParser propertyValueParser, OutputMode outputMode) {
+        this(propertyValueParser, outputMode, ResolutionInstrumentation.NONE);
+    }
+
+    /**
+     * @param instrumentation the reference depth isn't reported, neither are the expansions and the timings in the {@link OutputMode#LIVE_VIEW}
+     */
+    public ResolutionTree(PropertyValueParser propertyValueParser, OutputMode outputMode, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, outputMode, instrumentation, ResolutionLimits.NONE);
+    }
+
+    /**
+     * @throws IllegalArgumentException if limits are given for the {@link OutputMode#LIVE_VIEW}
+     */
+    public ResolutionTree(PropertyValueParser propertyValueParser, OutputMode outputMode, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+        if (outputMode == OutputMode.LIVE_VIEW && !limits.isUnlimited()) {
+            throw new IllegalArgumentException("the live view doesn't enforce the resolution limits");
+        }
         this.propertyValueParser = propertyValueParser;
+        this.outputMode = outputMode;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
     }
 
     @Override
     public Map<String, String> merge(Map<String, String> input) {
-        parse(input);
-        resolveFutures();
-        return valuesToStrings();
+        final Map<String, EntryPart> keyDefinitions = new Build(input).parse().resolveFutures().keyDefinitions;
+        switch (outputMode) {
+            case LIVE_VIEW:
+                return valuesToStrings(keyDefinitions);
+            case COMPACT:
+                return new CompactValuesMap(flatten(keyDefinitions, new Flattening<Object>() {
+                    private final Interner<String> stringTable = Interners.newStrongInterner();
+
+                    @Override
+                    Object flatten(EntryPart part, Map<EntryPart, Object> flattened) {
+                        return part.toCompact(flattened, stringTable);
+                    }
+
+                    @Override
+                    String toS(Object flattened) {
+                        return CompactValuesMap.concatenate(flattened);
+                    }
+                }));
+            default:
+                return flatten(keyDefinitions, new Flattening<String>() {
+                    @Override
+                    String flatten(EntryPart part, Map<EntryPart, String> flattened) {
+                        return part.toS(flattened);
+                    }
+
+                    @Override
+                    String toS(String flattened) {
+                        return flattened;
+                    }
+                });
+        }
     }
 
-    private void parse(Map<String, String> input) {
-        for (Map.Entry<String, String> sourceMapEntry : input.entrySet()) {
-            keyDefinitions.put(sourceMapEntry.getKey(), parseEntry(sourceMapEntry.getValue()));
+    /**
+     * State of a single merge: the tree being built.
+     */
+    private class Build {
+        private final Map<String, String> input;
+        private final Map<String, EntryPart> keyDefinitions = newHashMap();
+        private final Map<String, FutureReference> futures = newHashMap();
+
+        private Build(Map<String, String> input) {
+            this.input = input;
+        }
+
+        private Build parse() {
+            for (Map.Entry<String, String> sourceMapEntry : input.entrySet()) {
+                keyDefinitions.put(sourceMapEntry.getKey(), parseEntry(sourceMapEntry.getValue()));
+            }
+            return this;
+        }
+
+        private EntryPart parseEntry(String value) {
+            instrumentation.onParse();
+            return propertyValueParser.parse(value, new MyOnStringPartParsedEventListener(this)).result;
+        }
+
+        private Build resolveFutures() {
+            for (Map.Entry<String, FutureReference> keyToFuture : futures.entrySet()) {
+                keyToFuture.getValue().resolve(keyDefinitions.get(keyToFuture.getKey()));
+            }
+            return this;
         }
     }
 
-    private EntryPart parseEntry(String value) {
-        return propertyValueParser.parse(value, new MyOnStringPartParsedEventListener()).result;
+    private static Map<String, String> valuesToStrings(Map<String, EntryPart> keyDefinitions) {
+        return Maps.transformValues(keyDefinitions, EntryPart.TO_S);
+    }
+
+    private static abstract class Flattening<T> {
+        /**
+         * @param flattened the results of (at least) all the sub parts
+         */
+        abstract T flatten(EntryPart part, Map<EntryPart, T> flattened);
+
+        abstract String toS(T flattened);
     }
 
-    private void resolveFutures() {
-        for (Map.Entry<String, FutureReference> keyToFuture : futures.entrySet()) {
-            keyToFuture.getValue().resolve(keyDefinitions.get(keyToFuture.getKey()));
+    /**
+     * Flattens every part of the tree once, bottom-up, with no recursion.
+     */
+    private <T> ImmutableMap<String, T> flatten(Map<String, EntryPart> keyDefinitions, Flattening<T> flattening) {
+        final Map<EntryPart, T> flattened = new IdentityHashMap<EntryPart, T>();
+        final Set<EntryPart> inProgress = Collections.newSetFromMap(new IdentityHashMap<EntryPart, Boolean>());
+        final Deque<EntryPart> stack = new ArrayDeque<EntryPart>();
+        final Measuring measuring = limits.isUnlimited() ? null : new Measuring(keyDefinitions);
+
+        final ImmutableMap.Builder<String, T> result = ImmutableMap.builder();
+        for (Map.Entry<String, EntryPart> keyDefinition : keyDefinitions.entrySet()) {
+            final long start = instrumentation.isEnabled() ? System.nanoTime() : 0L;
+            instrumentation.onExpansion(keyDefinition.getKey(), 0);
+            stack.push(keyDefinition.getValue());
+            while (!stack.isEmpty()) {
+                final EntryPart part = stack.peek();
+                if (flattened.containsKey(part)) {
+                    stack.pop();
+                } else if (inProgress.contains(part)) {
+                    //all the sub parts have been flattened by now
+                    if (part instanceof ExpressionPart) {
+                        final EntryPart chosen = ((ExpressionPart) part).choose(flattening, flattened);
+                        if (null != chosen && !flattened.containsKey(chosen)) {
+                            if (inProgress.contains(chosen)) {
+                                throw new CircularReferenceException(((ExpressionPart) part).chosenKey);
+                            }
+                            stack.push(chosen);
+                            continue;
+                        }
+                    }
+                    inProgress.remove(part);
+                    if (null != measuring) {
+                        measuring.measure(keyDefinition.getKey(), part);
+                    }
+                    flattened.put(part, flattening.flatten(part, flattened));
+                    stack.pop();
+                } else {
+                    inProgress.add(part);
+                    for (EntryPart subPart : part.subParts()) {
+                        if (inProgress.contains(subPart)) {
+                            throw new CircularReferenceException(circularKey(subPart, stack, inProgress));
+                        }
+                        if (!flattened.containsKey(subPart)) {
+                            stack.push(subPart);
+                        }
+                    }
+                }
+            }
+            if (null != measuring) {
+                measuring.count(keyDefinition.getValue());
+            }
+            result.put(keyDefinition.getKey(), flattened.get(keyDefinition.getValue()));
+            if (instrumentation.isEnabled()) {
+                instrumentation.onKeyResolved(keyDefinition.getKey(), System.nanoTime() - start);
+            }
         }
+        return result.build();
     }
 
-    public Map<String, String> valuesToStrings() {
-        return Maps.transformValues(keyDefinitions, EntryPart.TO_S);
+    /**
+     * Lengths and depths of the flattened parts, checked against the limits.
+     */
+    private class Measuring {
+        private final Set<EntryPart> keyParts = Collections.newSetFromMap(new IdentityHashMap<EntryPart, Boolean>());
+        private final Map<EntryPart, Measure> measured = new IdentityHashMap<EntryPart, Measure>();
+        /**
+         * of the keys flattened so far
+         */
+        private long totalLength;
+
+        private Measuring(Map<String, EntryPart> keyDefinitions) {
+            keyParts.addAll(keyDefinitions.values());
+        }
+
+        /**
+         * Measures the part before it gets flattened, all its sub parts having been measured by now.
+         *
+         * @param key being flattened, the part is within its value
+         */
+        private void measure(String key, EntryPart part) {
+            final Measure measure = part.measure(measured);
+            limits.checkLength(key, measure.length, totalLength);
+            limits.checkDepth(key, measure.depth);
+            //the part of a key counts as a reference for the parts containing it
+            measured.put(part, keyParts.contains(part) ? new Measure(measure.length, measure.depth + 1) : measure);
+        }
+
+        private void count(EntryPart keyPart) {
+            totalLength += measured.get(keyPart).length;
+            //could have been measured as a part of a previous key
+            limits.checkTotalLength(totalLength);
+        }
+    }
+
+    /**
+     * Length of a part and the length of the longest chain of the key parts within it
+     */
+    private static final class Measure {
+        private final long length;
+        private final int depth;
+
+        private Measure(long length, int depth) {
+            this.length = length;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * a circle always goes through a future or an expression as the keys defined earlier can't reference the later ones otherwise
+     */
+    private static String circularKey(EntryPart closingPart, Deque<EntryPart> stack, Set<EntryPart> inProgress) {
+        if (null != referencedKey(closingPart)) {
+            return referencedKey(closingPart);
+        }
+        for (EntryPart part : stack) {
+            if (inProgress.contains(part) && null != referencedKey(part)) {
+                return referencedKey(part);
+            }
+        }
+        throw new IllegalStateException("circular reference without a future reference in it");
+    }
+
+    /**
+     * @return the key the part stands for if it references another key
+     */
+    private static String referencedKey(EntryPart part) {
+        if (part instanceof FutureReference) {
+            return ((FutureReference) part).key;
+        }
+        if (part instanceof ExpressionPart) {
+            return ((ExpressionPart) part).chosenKey;
+        }
+        return null;
     }
 
     private static interface EntryPart {
@@ -60,6 +312,28 @@ public class ResolutionTree implements MapValuesResolver {
          */
         String toS();
 
+        /**
+         * @return parts this one is made of
+         */
+        List<EntryPart> subParts();
+
+        /**
+         * @param flattened string values of (at least) all the sub parts
+         */
+        String toS(Map<EntryPart, String> flattened);
+
+        /**
+         * @param compacted {@link CompactValuesMap} segments of (at least) all the sub parts
+         * @return {@link CompactValuesMap} segment
+         */
+        Object toCompact(Map<EntryPart, Object> compacted, Interner<String> stringTable);
+
+        /**
+         * @param measured measures of (at least) all the sub parts
+         * @return the length of the part and the greatest depth of its sub parts
+         */
+        Measure measure(Map<EntryPart, Measure> measured);
+
         static Function<EntryPart, String> TO_S = new Function<EntryPart, String>() {
             @Override
             public String apply(EntryPart entryPart) {
@@ -80,6 +354,41 @@ public class ResolutionTree implements MapValuesResolver {
             return Joiner.on("").join(Iterables.transform(contents, TO_S));
         }
 
+        @Override
+        public List<EntryPart> subParts() {
+            return contents;
+        }
+
+        @Override
+        public String toS(Map<EntryPart, String> flattened) {
+            final StringBuilder result = new StringBuilder();
+            for (EntryPart content : contents) {
+                result.append(flattened.get(content));
+            }
+            return result.toString();
+        }
+
+        @Override
+        public Object toCompact(Map<EntryPart, Object> compacted, Interner<String> stringTable) {
+            final Object[] segments = new Object[contents.size()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = compacted.get(contents.get(i));
+            }
+            return segments;
+        }
+
+        @Override
+        public Measure measure(Map<EntryPart, Measure> measured) {
+            long length = 0;
+            int depth = 0;
+            for (EntryPart content : contents) {
+                final Measure measure = measured.get(content);
+                length += measure.length;
+                depth = Math.max(depth, measure.depth);
+            }
+            return new Measure(length, depth);
+        }
+
         @Override
         public String toString() {
             return "CompositePart{" +
@@ -89,11 +398,13 @@ public class ResolutionTree implements MapValuesResolver {
     }
 
     private static class FutureReference implements EntryPart {
+        private final String key;
         private final String originalPlaceholder;
         //TODO: mutability is evil. Replace LeafString ?
         private EntryPart resolvedValue;
 
-        private FutureReference(String name) {
+        private FutureReference(String key, String name) {
+            this.key = key;
             this.originalPlaceholder = name;
         }
 
@@ -105,6 +416,38 @@ public class ResolutionTree implements MapValuesResolver {
             return resolvedValue.toS();
         }
 
+        @Override
+        public List<EntryPart> subParts() {
+            if (null == resolvedValue) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(resolvedValue);
+        }
+
+        @Override
+        public String toS(Map<EntryPart, String> flattened) {
+            if (null == resolvedValue) {
+                return originalPlaceholder;
+            }
+            return flattened.get(resolvedValue);
+        }
+
+        @Override
+        public Object toCompact(Map<EntryPart, Object> compacted, Interner<String> stringTable) {
+            if (null == resolvedValue) {
+                return stringTable.intern(originalPlaceholder);
+            }
+            return compacted.get(resolvedValue);
+        }
+
+        @Override
+        public Measure measure(Map<EntryPart, Measure> measured) {
+            if (null == resolvedValue) {
+                return new Measure(originalPlaceholder.length(), 0);
+            }
+            return measured.get(resolvedValue);
+        }
+
         public void resolve(EntryPart entryPart) {
             this.resolvedValue = entryPart;
         }
@@ -118,6 +461,85 @@ public class ResolutionTree implements MapValuesResolver {
         }
     }
 
+    /**
+     * A placeholder whose key has to be flattened first to choose the part it stands for: the definition of the key, the
+     * default value or none, the original placeholder being left intact.
+     */
+    private static class ExpressionPart implements EntryPart {
+        private final Map<String, EntryPart> keyDefinitions;
+        private final EntryPart keyPart;
+        private final EntryPart defaultPart;
+        private final String originalPlaceholder;
+        private boolean chosen;
+        private String chosenKey;
+        private EntryPart chosenPart;
+
+        private ExpressionPart(Map<String, EntryPart> keyDefinitions, EntryPart keyPart, EntryPart defaultPart, String originalPlaceholder) {
+            this.keyDefinitions = keyDefinitions;
+            this.keyPart = keyPart;
+            this.defaultPart = defaultPart;
+            this.originalPlaceholder = originalPlaceholder;
+        }
+
+        /**
+         * @param flattened the results of (at least) the key part
+         * @return the part this one stands for, null if none
+         */
+        <T> EntryPart choose(Flattening<T> flattening, Map<EntryPart, T> flattened) {
+            if (!chosen) {
+                choose(flattening.toS(flattened.get(keyPart)));
+            }
+            return chosenPart;
+        }
+
+        private void choose(String key) {
+            chosen = true;
+            chosenPart = keyDefinitions.get(key);
+            if (null != chosenPart) {
+                chosenKey = key;
+            } else {
+                chosenPart = defaultPart;
+            }
+        }
+
+        @Override
+        public String toS() {
+            final EntryPart part = keyDefinitions.get(keyPart.toS());
+            if (null != part) {
+                return part.toS();
+            }
+            return null == defaultPart ? originalPlaceholder : defaultPart.toS();
+        }
+
+        @Override
+        public List<EntryPart> subParts() {
+            return Collections.singletonList(keyPart);
+        }
+
+        @Override
+        public String toS(Map<EntryPart, String> flattened) {
+            return null == chosenPart ? originalPlaceholder : flattened.get(chosenPart);
+        }
+
+        @Override
+        public Object toCompact(Map<EntryPart, Object> compacted, Interner<String> stringTable) {
+            return null == chosenPart ? stringTable.intern(originalPlaceholder) : compacted.get(chosenPart);
+        }
+
+        @Override
+        public Measure measure(Map<EntryPart, Measure> measured) {
+            return null == chosenPart ? new Measure(originalPlaceholder.length(), 0) : measured.get(chosenPart);
+        }
+
+        @Override
+        public String toString() {
+            return "ExpressionPart{" +
+                    "originalPlaceholder='" + originalPlaceholder + '\'' +
+                    ", chosenPart=" + chosenPart +
+                    '}';
+        }
+    }
+
     private static class LeafString implements EntryPart {
         private final String value;
 
@@ -130,6 +552,26 @@ public class ResolutionTree implements MapValuesResolver {
             return value;
         }
 
+        @Override
+        public List<EntryPart> subParts() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String toS(Map<EntryPart, String> flattened) {
+            return value;
+        }
+
+        @Override
+        public Object toCompact(Map<EntryPart, Object> compacted, Interner<String> stringTable) {
+            return stringTable.intern(value);
+        }
+
+        @Override
+        public Measure measure(Map<EntryPart, Measure> measured) {
+            return new Measure(value.length(), 0);
+        }
+
         @Override
         public String toString() {
             return value;
@@ -140,34 +582,46 @@ public class ResolutionTree implements MapValuesResolver {
 
         public EntryPart result;
 
+        private final Build build;
         private List<EntryPart> partsCollected;
 
+        private MyOnStringPartParsedEventListener(Build build) {
+            this.build = build;
+        }
+
         @Override
         public void onStart() {
             partsCollected = newArrayList();
         }
 
         @Override
-        public void onResolvedStringPart(String part) {
-            partsCollected.add(new LeafString(part));
+        public void onResolvedStringPart(String value, int start, int end) {
+            partsCollected.add(new LeafString(value.substring(start, end)));
         }
 
         @Override
-        public void onPlaceholderPart(String keyReference, String placeholder) {
+        public void onPlaceholderPart(String keyReference, String value, int start, int end) {
+            instrumentation.onPlaceholder(keyReference, null != build.input.get(keyReference));
             final EntryPart alreadyResolved;
-            if (null != (alreadyResolved = keyDefinitions.get(keyReference))) {
+            if (null != (alreadyResolved = build.keyDefinitions.get(keyReference))) {
                 partsCollected.add(alreadyResolved);
                 return;
             }
 
-            FutureReference future = futures.get(keyReference);
+            FutureReference future = build.futures.get(keyReference);
             if (null == future) {
-                future = new FutureReference(placeholder);
-                futures.put(keyReference, future);
+                future = new FutureReference(keyReference, value.substring(start, end));
+                build.futures.put(keyReference, future);
             }
             partsCollected.add(future);
         }
 
+        @Override
+        public void onExpressionPart(String keyExpression, String defaultValue, String value, int start, int end) {
+            partsCollected.add(new ExpressionPart(build.keyDefinitions, build.parseEntry(keyExpression),
+                    null == defaultValue ? null : build.parseEntry(defaultValue), value.substring(start, end)));
+        }
+
         @Override
         public void onEnd() {
             if (partsCollected.size() == 1) {
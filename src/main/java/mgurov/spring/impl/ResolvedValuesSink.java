@@ -0,0 +1,10 @@
+package mgurov.spring.impl;
+
+import java.io.IOException;
+
+/**
+ * Receives the resolved values one by one, see {@link StreamingMapValuesResolver}.
+ */
+public interface ResolvedValuesSink {
+    void accept(String key, String value) throws IOException;
+}
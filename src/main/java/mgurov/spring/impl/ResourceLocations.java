@@ -0,0 +1,166 @@
+package mgurov.spring.impl;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Resolves the resource locations the way Spring's {@code DefaultResourceLoader} does, without depending on Spring:
+ * {@code classpath:} prefixed locations and anything not being a URL are looked up on the classpath, URLs (e.g. {@code file:})
+ * are taken as is.
+ */
+public final class ResourceLocations {
+
+    public static final String CLASSPATH_PREFIX = "classpath:";
+
+    private ResourceLocations() {
+    }
+
+    public static URL toUrl(String location) throws FileNotFoundException {
+        if (!location.startsWith(CLASSPATH_PREFIX)) {
+            try {
+                return new URL(location);
+            } catch (MalformedURLException e) {
+                //then a classpath one
+            }
+        }
+        String path = location.startsWith(CLASSPATH_PREFIX) ? location.substring(CLASSPATH_PREFIX.length()) : location;
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        final URL result = classLoader().getResource(path);
+        if (null == result) {
+            throw new FileNotFoundException(location + " not found on the classpath");
+        }
+        return result;
+    }
+
+    /**
+     * @return the file behind the URL or null if it isn't a file system one
+     */
+    public static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getFile());
+        }
+    }
+
+    /**
+     * @return the stamp of the file, without reading it, or of the resource by a connection released right away
+     */
+    public static Stamp stamp(URL url) throws IOException {
+        final File file = toFile(url);
+        if (null != file) {
+            if (!file.exists()) {
+                throw new FileNotFoundException(file.toString());
+            }
+            return new Stamp(file.lastModified(), file.length());
+        }
+        final URLConnection connection = connect(url);
+        try {
+            return stamp(connection);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * @return the stamp by the headers of the connection, i.e. without touching its content, to read the content by the
+     * same connection afterwards if needed
+     */
+    public static Stamp stamp(URLConnection connection) throws IOException {
+        connection.connect();
+        return new Stamp(connection.getLastModified(), connection.getContentLengthLong());
+    }
+
+    /**
+     * @return not yet connected connection with no caches, to be {@link #release(URLConnection) released} once done
+     */
+    public static URLConnection connect(URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    /**
+     * Frees what the connection holds whether its content has been read or not: the HTTP connection is disconnected and the
+     * jar file opened for the connection alone is closed.
+     */
+    public static void release(URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).disconnect();
+        } else if (connection instanceof JarURLConnection && !connection.getUseCaches()) {
+            try {
+                ((JarURLConnection) connection).getJarFile().close();
+            } catch (IOException e) {
+                //the connection failed, nothing kept open then
+            }
+        }
+    }
+
+    public static InputStream open(URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        return connection.getInputStream();
+    }
+
+    private static ClassLoader classLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return null == contextClassLoader ? ResourceLocations.class.getClassLoader() : contextClassLoader;
+    }
+
+    /**
+     * Last modification time and length of a resource, telling whether it has changed since the last read: neither alone
+     * does as a file rewritten within the same tick of the clock, e.g. of a second, keeps its modification time.
+     * <br/>
+     * Immutable.
+     */
+    public static final class Stamp {
+        private final long lastModified;
+        private final long length;
+
+        /**
+         * @param lastModified 0 if unknown
+         * @param length -1 if unknown
+         */
+        public Stamp(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return true if the resource is known for sure to be the same as the one of the other stamp, false if the
+         * modification time is unknown
+         */
+        public boolean isSameAs(Stamp other) {
+            return lastModified != 0 && lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public String toString() {
+            return "Stamp{" +
+                    "lastModified=" + lastModified +
+                    ", length=" + length +
+                    '}';
+        }
+    }
+}
@@ -10,39 +10,71 @@ import static com.google.common.collect.Sets.newHashSet;
 /**
  * Emulates Spring's {@link org.springframework.core.env.PropertySourcesPropertyResolver} or something around that by simply
  * squashing all the maps into one big one and then processing each key and looking up properties from the squashed map.
+ * <br/>
+ * The {@link ResolutionLimits} are checked upon every part appended, so a blowing up value is stopped once it gets too long.
+ * <br/>
+ * Keeps no state between the merges, so a single instance could be shared by concurrent merges.
  */
 public class SimpleMapValuesResolver implements MapValuesResolver {
 
-    private Map<String,String> originalMap;
     private final PropertyValueParser propertyValueParser;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
 
     public SimpleMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, ResolutionInstrumentation.NONE);
+    }
+
+    public SimpleMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public SimpleMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
         this.propertyValueParser = propertyValueParser;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
     }
 
     @Override
     public Map<String, String> merge(Map<String, String> input) {
-        originalMap = input;
-
         final Map<String, String> result = newHashMap();
-        for (Map.Entry<String, String> stringStringEntry : originalMap.entrySet()) {
+        long totalLength = 0;
+        for (Map.Entry<String, String> stringStringEntry : input.entrySet()) {
             final String key = stringStringEntry.getKey();
-            result.put(key, resolveValue(stringStringEntry.getValue(), newHashSet(key)));
+            final long start = instrumentation.isEnabled() ? System.nanoTime() : 0L;
+            instrumentation.onExpansion(key, 0);
+            final String value = resolveValue(input, key, stringStringEntry.getValue(), newHashSet(key), totalLength);
+            totalLength += value.length();
+            result.put(key, value);
+            if (instrumentation.isEnabled()) {
+                instrumentation.onKeyResolved(key, System.nanoTime() - start);
+            }
         }
 
         return result;
     }
 
-    private String resolveValue(String value, Set<String> visitedReferences) {
-        return propertyValueParser.parse(value, new MyOnStringPartParsedEventListener(visitedReferences)).result.toString();
+    /**
+     * @param key whose value is being resolved, the value could be a part of it
+     * @param totalLength of the values resolved before, for the value being resolved gets at least as long as any part of it
+     */
+    private String resolveValue(Map<String, String> originalMap, String key, String value, Set<String> visitedReferences, long totalLength) {
+        instrumentation.onParse();
+        return propertyValueParser.parse(value, new MyOnStringPartParsedEventListener(originalMap, key, visitedReferences, totalLength)).result.toString();
     }
 
     private class MyOnStringPartParsedEventListener implements PropertyValueParser.OnStringPartParsedEventListener {
+        private final Map<String, String> originalMap;
+        private final String key;
         private final Set<String> visitedReferences;
+        private final long totalLength;
         private StringBuilder result;
 
-        public MyOnStringPartParsedEventListener(Set<String> visitedReferences) {
+        public MyOnStringPartParsedEventListener(Map<String, String> originalMap, String key, Set<String> visitedReferences, long totalLength) {
+            this.originalMap = originalMap;
+            this.key = key;
             this.visitedReferences = visitedReferences;
+            this.totalLength = totalLength;
         }
 
         @Override
@@ -51,22 +83,55 @@ public class SimpleMapValuesResolver implements MapValuesResolver {
         }
 
         @Override
-        public void onResolvedStringPart(String part) {
-            result.append(part);
+        public void onResolvedStringPart(String value, int start, int end) {
+            append(value, start, end);
         }
 
         @Override
-        public void onPlaceholderPart(String keyRefererence, String placeholder) {
-            final String value = originalMap.get(keyRefererence);
+        public void onPlaceholderPart(String keyRefererence, String placeholderValue, int start, int end) {
+            final String value = expand(keyRefererence);
             if (null != value) {
-                if (!visitedReferences.add(keyRefererence)) {
-                    throw new CircularReferenceException(keyRefererence);
-                }
-                result.append(resolveValue(value, visitedReferences));
-                visitedReferences.remove(keyRefererence);
+                append(value, 0, value.length());
             } else {
-                result.append(placeholder);
+                append(placeholderValue, start, end);
+            }
+        }
+
+        @Override
+        public void onExpressionPart(String keyExpression, String defaultValue, String placeholderValue, int start, int end) {
+            String value = expand(resolveValue(originalMap, key, keyExpression, visitedReferences, totalLength));
+            if (null == value && null != defaultValue) {
+                value = resolveValue(originalMap, key, defaultValue, visitedReferences, totalLength);
+            }
+            if (null != value) {
+                append(value, 0, value.length());
+            } else {
+                append(placeholderValue, start, end);
+            }
+        }
+
+        private void append(String value, int start, int end) {
+            limits.checkLength(key, (long) result.length() + end - start, totalLength);
+            result.append(value, start, end);
+        }
+
+        /**
+         * @return resolved value of the key or null if missing
+         */
+        private String expand(String keyRefererence) {
+            final String value = originalMap.get(keyRefererence);
+            instrumentation.onPlaceholder(keyRefererence, null != value);
+            if (null == value) {
+                return null;
+            }
+            if (!visitedReferences.add(keyRefererence)) {
+                throw new CircularReferenceException(keyRefererence);
             }
+            instrumentation.onExpansion(keyRefererence, visitedReferences.size() - 1);
+            limits.checkDepth(keyRefererence, visitedReferences.size() - 1);
+            final String resolved = resolveValue(originalMap, keyRefererence, value, visitedReferences, totalLength);
+            visitedReferences.remove(keyRefererence);
+            return resolved;
         }
 
         @Override
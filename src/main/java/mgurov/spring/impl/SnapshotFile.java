@@ -0,0 +1,203 @@
+package mgurov.spring.impl;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+
+/**
+ * Binary file holding resolved values along with the fingerprint of the input they were resolved from:
+ * <pre>
+ * int magic, int version, long fingerprint, string key, int count, string location * count,
+ * int count, (string key, string value) * count, long CRC32 of all the preceding bytes
+ * </pre>
+ * Strings are written as the int length of their UTF-8 bytes followed by the bytes. The file is read by a single sequential
+ * read and checked against the CRC before anything is decoded; the values are decoded only once asked for, i.e. once the
+ * fingerprint has been found matching. Written to a temporary file first which is then moved over the target, so the readers
+ * never see a partially written snapshot.
+ */
+public final class SnapshotFile {
+
+    static final int MAGIC = 0x534E4150;
+    static final int VERSION = 1;
+    private static final int CRC_LENGTH = 8;
+
+    private final long fingerprint;
+    private final String key;
+    private final List<String> locations;
+    private final ByteBuffer values;
+
+    private SnapshotFile(long fingerprint, String key, List<String> locations, ByteBuffer values) {
+        this.fingerprint = fingerprint;
+        this.key = key;
+        this.locations = locations;
+        this.values = values;
+    }
+
+    /**
+     * @throws IOException also if the file is corrupt or of another format version
+     */
+    public static SnapshotFile read(File file) throws IOException {
+        final byte[] bytes;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final long length = raf.length();
+            if (length > Integer.MAX_VALUE || length < 2 * 4 + 8 + CRC_LENGTH) {
+                throw corrupt(file, "unexpected size " + length);
+            }
+            bytes = new byte[(int) length];
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - CRC_LENGTH);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(bytes.length - CRC_LENGTH) != crc.getValue()) {
+            throw corrupt(file, "checksum mismatch");
+        }
+        buffer.limit(bytes.length - CRC_LENGTH);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw corrupt(file, "not a snapshot");
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw corrupt(file, "unsupported version " + version);
+            }
+            final long fingerprint = buffer.getLong();
+            final String key = readString(buffer);
+            final int count = readCount(buffer);
+            final List<String> locations = newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                locations.add(readString(buffer));
+            }
+            return new SnapshotFile(fingerprint, key, Collections.unmodifiableList(locations), buffer.slice());
+        } catch (BufferUnderflowException e) {
+            throw corrupt(file, "truncated");
+        } catch (IllegalArgumentException e) {
+            throw corrupt(file, e.getMessage());
+        }
+    }
+
+    public static void write(File file, long fingerprint, String key, List<String> locations, Map<String, String> values) throws IOException {
+        final File temporary = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            final FileOutputStream fos = new FileOutputStream(temporary);
+            try {
+                final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+                final DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                writeString(out, key);
+                out.writeInt(locations.size());
+                for (String location : locations) {
+                    writeString(out, location);
+                }
+                out.writeInt(values.size());
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            move(temporary, file);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public List<String> getLocations() {
+        return locations;
+    }
+
+    /**
+     * @return the values decoded, a new map every time
+     * @throws IOException if the values are corrupt
+     */
+    public Map<String, String> getValues() throws IOException {
+        final ByteBuffer buffer = values.duplicate();
+        try {
+            final int count = readCount(buffer);
+            final Map<String, String> result = newHashMapWithExpectedSize(count);
+            for (int i = 0; i < count; i++) {
+                result.put(readString(buffer), readString(buffer));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("corrupt snapshot: " + buffer.remaining() + " trailing bytes");
+            }
+            return result;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("corrupt snapshot: truncated values");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt snapshot: " + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = readCount(buffer);
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final String result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, Charsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("negative length " + count);
+        }
+        return count;
+    }
+
+    private static IOException corrupt(File file, String reason) {
+        return new IOException("corrupt snapshot " + file + ": " + reason);
+    }
+}
@@ -0,0 +1,74 @@
+package mgurov.spring.impl;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pushes the values into a {@link ResolvedValuesSink} as soon as each gets resolved rather than collecting them into a map,
+ * e.g. to export a large map into a file. The values are resolved the {@link MemoizingMapValuesResolver} way but only a
+ * bounded number of the recently used ones is remembered, the rest being resolved again once referenced, so the memory
+ * taken on top of the input stays flat whatever the size of the input.
+ * <br/>
+ * The {@link ResolutionLimits} are checked the {@link MemoizingMapValuesResolver} way. A value resolved again once forgotten
+ * counts towards the total length again, so the total bounds the work done rather than the output. With the depth limited
+ * the depth of every key resolved is remembered.
+ */
+public class StreamingMapValuesResolver {
+
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final PropertyValueParser propertyValueParser;
+    private final int cacheSize;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+
+    public StreamingMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, DEFAULT_CACHE_SIZE);
+    }
+
+    public StreamingMapValuesResolver(PropertyValueParser propertyValueParser, int cacheSize) {
+        this(propertyValueParser, cacheSize, ResolutionInstrumentation.NONE);
+    }
+
+    /**
+     * @param cacheSize number of the resolved values to remember
+     */
+    public StreamingMapValuesResolver(PropertyValueParser propertyValueParser, int cacheSize, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, cacheSize, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public StreamingMapValuesResolver(PropertyValueParser propertyValueParser, int cacheSize, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+        this.propertyValueParser = propertyValueParser;
+        this.cacheSize = cacheSize;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+    }
+
+    /**
+     * Resolves the values in the iteration order of the input.
+     *
+     * @throws mgurov.spring.CircularReferenceException after the values resolved before the circle met have been passed to the sink
+     * @throws mgurov.spring.ResolutionLimitExceededException after the values resolved within the limits have been passed to the sink
+     */
+    public void resolve(Map<String, String> input, ResolvedValuesSink sink) throws IOException {
+        final MemoizingMapValuesResolver.Resolution resolution = new MemoizingMapValuesResolver.Resolution(propertyValueParser, instrumentation, limits, input, new RecentlyUsed(cacheSize));
+        for (String key : input.keySet()) {
+            sink.accept(key, resolution.resolveTopKey(key));
+        }
+    }
+
+    private static class RecentlyUsed extends LinkedHashMap<String, String> {
+        private final int maxSize;
+
+        private RecentlyUsed(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
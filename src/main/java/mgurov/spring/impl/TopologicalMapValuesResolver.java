@@ -0,0 +1,53 @@
+package mgurov.spring.impl;
+
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+
+/**
+ * Parses every value once into a graph of keys referencing each other and orders it by an iterative Tarjan's strongly connected
+ * components pass (see {@link ReferenceGraph}), so every key gets resolved right away from the already resolved values without
+ * any recursion, hence no stack overflow on long reference chains.
+ * <br/>
+ * All the circular references are collected over the whole graph and reported together by a single {@link mgurov.spring.CircularReferenceException}.
+ */
+public class TopologicalMapValuesResolver implements MapValuesResolver {
+
+    private final PropertyValueParser propertyValueParser;
+    private final ResolutionInstrumentation instrumentation;
+    private final ResolutionLimits limits;
+
+    public TopologicalMapValuesResolver(PropertyValueParser propertyValueParser) {
+        this(propertyValueParser, ResolutionInstrumentation.NONE);
+    }
+
+    public TopologicalMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation) {
+        this(propertyValueParser, instrumentation, ResolutionLimits.NONE);
+    }
+
+    public TopologicalMapValuesResolver(PropertyValueParser propertyValueParser, ResolutionInstrumentation instrumentation, ResolutionLimits limits) {
+        this.propertyValueParser = propertyValueParser;
+        this.instrumentation = instrumentation;
+        this.limits = limits;
+    }
+
+    @Override
+    public Map<String, String> merge(Map<String, String> input) {
+        final Map<String, ValueTemplate> templates = newHashMapWithExpectedSize(input.size());
+        for (Map.Entry<String, String> entry : input.entrySet()) {
+            instrumentation.onParse();
+            templates.put(entry.getKey(), ValueTemplate.compile(propertyValueParser, entry.getValue()));
+        }
+        return new ReferenceGraph(templates, ValueTemplate.NO_VALUES, instrumentation, limits).resolve().getResolvedValues();
+    }
+
+    /**
+     * Resolves the given templates in the order of their dependencies.
+     *
+     * @param outside resolved values of the keys referenced but not present among the templates
+     * @return resolved values of the templates' keys
+     */
+    static Map<String, String> resolve(Map<String, ValueTemplate> templates, ValueTemplate.ResolvedValues outside) {
+        return new ReferenceGraph(templates, outside).resolve().getResolvedValues();
+    }
+}
@@ -0,0 +1,83 @@
+package mgurov.spring.impl;
+
+import java.util.Map;
+
+/**
+ * Substitutes the placeholders of arbitrary strings, e.g. bean definition values, by already resolved values. The resolved
+ * values hold no resolvable placeholders anymore, so a single pass over the string is enough, no recursion needed: a placeholder
+ * still present in the result can't be resolved at all.
+ * <br/>
+ * Thread safe as long as the resolved values aren't modified.
+ */
+public final class ValueSubstitution {
+
+    private final PropertyValueParser propertyValueParser;
+    private final String prefix;
+    private final ValueTemplate.ResolvedValues resolvedValues;
+
+    /**
+     * @param prefix placeholder prefix the parser is configured with, to let the strings without placeholders through without parsing
+     * @param resolved resolved values, e.g. by one of the {@link mgurov.spring.MapValuesResolutionAlgorithm}s
+     */
+    public ValueSubstitution(PropertyValueParser propertyValueParser, String prefix, final Map<String, String> resolved) {
+        this.propertyValueParser = propertyValueParser;
+        this.prefix = prefix;
+        this.resolvedValues = new ValueTemplate.ResolvedValues() {
+            @Override
+            public String get(String key) {
+                return resolved.get(key);
+            }
+        };
+    }
+
+    /**
+     * @return the value with the placeholders substituted, the placeholders of the missing keys having no default value left intact
+     */
+    public String substitute(String value) {
+        if (!value.contains(prefix)) {
+            return value;
+        }
+        return ValueTemplate.compile(propertyValueParser, value).resolve(resolvedValues);
+    }
+
+    /**
+     * @return the key (expression) of the first placeholder in the value or null if there are none, e.g. to report the
+     * placeholders left unresolved by {@link #substitute(String)}
+     */
+    public String findPlaceholder(String value) {
+        if (!value.contains(prefix)) {
+            return null;
+        }
+        return propertyValueParser.parse(value, new FirstPlaceholder()).key;
+    }
+
+    private static class FirstPlaceholder implements PropertyValueParser.OnStringPartParsedEventListener {
+        private String key;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onResolvedStringPart(String value, int start, int end) {
+        }
+
+        @Override
+        public void onPlaceholderPart(String keyReference, String value, int start, int end) {
+            if (null == key) {
+                key = keyReference;
+            }
+        }
+
+        @Override
+        public void onExpressionPart(String keyExpression, String defaultValue, String value, int start, int end) {
+            if (null == key) {
+                key = keyExpression;
+            }
+        }
+
+        @Override
+        public void onEnd() {
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package mgurov.spring.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Parsed form of a value: literal parts, references to other keys and expressions, i.e. placeholders with nested placeholders
+ * or default values. All are kept as offsets within the original value so the template costs a couple of arrays on top of
+ * the value itself.
+ * <br/>
+ * The keys an expression looks up are known only once its nested placeholders are resolved and the default value is only
+ * needed if the key is missing, so such references are not listed by {@link #getReferences()} but looked up on demand upon
+ * {@link #resolve(ResolvedValues)}, see {@link #isDynamic()}.
+ */
+final class ValueTemplate {
+
+    /**
+     * Looks the resolved values of the referenced keys up.
+     */
+    interface ResolvedValues {
+        /**
+         * @return resolved value of the key or null if the key is missing and the placeholder should be left intact
+         */
+        String get(String key);
+    }
+
+    static final ResolvedValues NO_VALUES = new ResolvedValues() {
+        @Override
+        public String get(String key) {
+            return null;
+        }
+    };
+
+    private final String value;
+    /**
+     * referenced key of each part, null for the literal and the expression parts
+     */
+    private final String[] references;
+    /**
+     * expression of each part, null for the literal and the reference parts, null altogether if there are no expressions
+     */
+    private final Expression[] expressions;
+    private final int[] starts;
+    private final int[] ends;
+
+    private ValueTemplate(String value, String[] references, Expression[] expressions, int[] starts, int[] ends) {
+        this.value = value;
+        this.references = references;
+        this.expressions = expressions;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    static ValueTemplate compile(PropertyValueParser propertyValueParser, String value) {
+        return propertyValueParser.parse(value, new Compiler(propertyValueParser, value)).result;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * @return keys referenced for sure in the order of appearance, the same key could be met several times. Those are the
+     * plain references, the references within the keys of the expressions and the keys of the expressions having no placeholders in them.
+     */
+    List<String> getReferences() {
+        final List<String> result = newArrayList();
+        collectReferences(result);
+        return result;
+    }
+
+    private void collectReferences(List<String> result) {
+        for (int i = 0; i < references.length; i++) {
+            if (null != references[i]) {
+                result.add(references[i]);
+            } else if (null != expressions && null != expressions[i]) {
+                final ValueTemplate key = expressions[i].key;
+                if (key.isLiteral()) {
+                    result.add(key.value);
+                } else {
+                    key.collectReferences(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@link #getReferences()} along with the references within the default values, i.e. all the keys that could be
+     * looked up unless {@link #hasComputedKeys()}
+     */
+    List<String> getPossibleReferences() {
+        final List<String> result = newArrayList();
+        collectPossibleReferences(result);
+        return result;
+    }
+
+    private void collectPossibleReferences(List<String> result) {
+        for (int i = 0; i < references.length; i++) {
+            if (null != references[i]) {
+                result.add(references[i]);
+            } else if (null != expressions && null != expressions[i]) {
+                final Expression expression = expressions[i];
+                if (expression.key.isLiteral()) {
+                    result.add(expression.key.value);
+                } else {
+                    expression.key.collectPossibleReferences(result);
+                }
+                if (null != expression.defaultValue) {
+                    expression.defaultValue.collectPossibleReferences(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if some keys are built of placeholders, e.g. <em>${db.${env}.url}</em>, so could be anything
+     */
+    boolean hasComputedKeys() {
+        if (null == expressions) {
+            return false;
+        }
+        for (Expression expression : expressions) {
+            if (null != expression && (!expression.key.isLiteral() || expression.key.hasComputedKeys()
+                    || (null != expression.defaultValue && expression.defaultValue.hasComputedKeys()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if some keys are only known upon the resolution: the keys built of placeholders and the references within
+     * the default values
+     */
+    boolean isDynamic() {
+        if (null == expressions) {
+            return false;
+        }
+        for (Expression expression : expressions) {
+            if (null != expression && expression.isDynamic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLiteral() {
+        for (int i = 0; i < references.length; i++) {
+            if (null != references[i] || (null != expressions && null != expressions[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String resolve(ResolvedValues resolvedValues) {
+        if (references.length == 1) {
+            final String resolved = resolvePart(0, resolvedValues);
+            return null == resolved ? value : resolved;
+        }
+        final StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < references.length; i++) {
+            final String resolved = resolvePart(i, resolvedValues);
+            if (null == resolved) {
+                result.append(value, starts[i], ends[i]);
+            } else {
+                result.append(resolved);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Same as {@link #resolve(ResolvedValues)} checking the length of the result, the one of the key and the total, against
+     * the limits before the result gets built.
+     *
+     * @param key whose value this template is
+     * @param totalLength of the values resolved so far, the length of the result gets added to it
+     */
+    String resolve(ResolvedValues resolvedValues, String key, ResolutionLimits limits, AtomicLong totalLength) {
+        final String[] parts = new String[references.length];
+        for (int i = 0; i < references.length; i++) {
+            parts[i] = resolvePart(i, resolvedValues);
+        }
+        return build(parts, key, limits, totalLength);
+    }
+
+    /**
+     * @param parts resolved, null for the literal parts and the placeholders to be left intact
+     */
+    private String build(String[] parts, String key, ResolutionLimits limits, AtomicLong totalLength) {
+        long length = 0;
+        for (int i = 0; i < parts.length; i++) {
+            length += null == parts[i] ? ends[i] - starts[i] : parts[i].length();
+        }
+        limits.checkValueLength(key, length);
+        limits.checkTotalLength(totalLength.addAndGet(length));
+        if (parts.length == 1) {
+            return null == parts[0] ? value : parts[0];
+        }
+        final StringBuilder result = new StringBuilder((int) length);
+        for (int i = 0; i < parts.length; i++) {
+            if (null == parts[i]) {
+                result.append(value, starts[i], ends[i]);
+            } else {
+                result.append(parts[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return id of the key referenced by each part, -1 for the literal and the expression parts and the missing keys
+     */
+    int[] referenceIds(KeyDictionary dictionary) {
+        final int[] result = new int[references.length];
+        for (int i = 0; i < references.length; i++) {
+            result[i] = null == references[i] ? -1 : dictionary.idOf(references[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #resolve(ResolvedValues)} with the references looked up by the ids rather than the keys.
+     *
+     * @param referenceIds as given by {@link #referenceIds(KeyDictionary)}
+     * @param resolvedById resolved values of (at least) the referenced keys
+     * @param resolvedValues for the expressions
+     */
+    String resolve(int[] referenceIds, String[] resolvedById, ResolvedValues resolvedValues) {
+        if (references.length == 1) {
+            final String resolved = resolvePart(0, referenceIds, resolvedById, resolvedValues);
+            return null == resolved ? value : resolved;
+        }
+        final StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < references.length; i++) {
+            final String resolved = resolvePart(i, referenceIds, resolvedById, resolvedValues);
+            if (null == resolved) {
+                result.append(value, starts[i], ends[i]);
+            } else {
+                result.append(resolved);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Same as {@link #resolve(int[], String[], ResolvedValues)} checking the lengths the way
+     * {@link #resolve(ResolvedValues, String, ResolutionLimits, AtomicLong)} does.
+     */
+    String resolve(int[] referenceIds, String[] resolvedById, ResolvedValues resolvedValues, String key, ResolutionLimits limits, AtomicLong totalLength) {
+        final String[] parts = new String[references.length];
+        for (int i = 0; i < references.length; i++) {
+            parts[i] = resolvePart(i, referenceIds, resolvedById, resolvedValues);
+        }
+        return build(parts, key, limits, totalLength);
+    }
+
+    private String resolvePart(int index, int[] referenceIds, String[] resolvedById, ResolvedValues resolvedValues) {
+        if (referenceIds[index] >= 0) {
+            return resolvedById[referenceIds[index]];
+        }
+        if (null != expressions && null != expressions[index]) {
+            return expressions[index].resolve(resolvedValues);
+        }
+        return null;
+    }
+
+    /**
+     * @return null for the literal parts and the placeholders to be left intact
+     */
+    private String resolvePart(int index, ResolvedValues resolvedValues) {
+        if (null != references[index]) {
+            return resolvedValues.get(references[index]);
+        }
+        if (null != expressions && null != expressions[index]) {
+            return expressions[index].resolve(resolvedValues);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ValueTemplate{" +
+                "value='" + value + '\'' +
+                ", references=" + Arrays.toString(references) +
+                (null == expressions ? "" : ", expressions=" + Arrays.toString(expressions)) +
+                '}';
+    }
+
+    private static final class Expression {
+        private final ValueTemplate key;
+        private final ValueTemplate defaultValue;
+
+        private Expression(ValueTemplate key, ValueTemplate defaultValue) {
+            this.key = key;
+            this.defaultValue = defaultValue;
+        }
+
+        boolean isDynamic() {
+            return !key.isLiteral() || (null != defaultValue && !defaultValue.isLiteral());
+        }
+
+        /**
+         * @return null if the key is missing and there is no default value
+         */
+        String resolve(ResolvedValues resolvedValues) {
+            final String resolved = resolvedValues.get(key.resolve(resolvedValues));
+            if (null != resolved || null == defaultValue) {
+                return resolved;
+            }
+            return defaultValue.resolve(resolvedValues);
+        }
+
+        @Override
+        public String toString() {
+            return "Expression{" +
+                    "key=" + key +
+                    ", defaultValue=" + defaultValue +
+                    '}';
+        }
+    }
+
+    private static class Compiler implements PropertyValueParser.OnStringPartParsedEventListener {
+
+        private final PropertyValueParser propertyValueParser;
+        private final String value;
+        private ValueTemplate result;
+        private final List<String> references = newArrayList();
+        private List<Expression> expressions;
+        private int[] starts = new int[4];
+        private int[] ends = new int[4];
+
+        private Compiler(PropertyValueParser propertyValueParser, String value) {
+            this.propertyValueParser = propertyValueParser;
+            this.value = value;
+        }
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onResolvedStringPart(String value, int start, int end) {
+            addPart(null, start, end);
+        }
+
+        @Override
+        public void onPlaceholderPart(String keyReference, String value, int start, int end) {
+            addPart(keyReference, start, end);
+        }
+
+        @Override
+        public void onExpressionPart(String keyExpression, String defaultValue, String value, int start, int end) {
+            if (null == expressions) {
+                expressions = newArrayList();
+            }
+            while (expressions.size() < references.size()) {
+                expressions.add(null);
+            }
+            expressions.add(new Expression(compile(propertyValueParser, keyExpression),
+                    null == defaultValue ? null : compile(propertyValueParser, defaultValue)));
+            addPart(null, start, end);
+        }
+
+        private void addPart(String keyReference, int start, int end) {
+            final int index = references.size();
+            if (index == starts.length) {
+                starts = Arrays.copyOf(starts, index * 2);
+                ends = Arrays.copyOf(ends, index * 2);
+            }
+            references.add(keyReference);
+            starts[index] = start;
+            ends[index] = end;
+        }
+
+        @Override
+        public void onEnd() {
+            final int size = references.size();
+            Expression[] expressionParts = null;
+            if (null != expressions) {
+                expressionParts = expressions.toArray(new Expression[size]);
+            }
+            result = new ValueTemplate(value, references.toArray(new String[size]), expressionParts, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+        }
+    }
+}
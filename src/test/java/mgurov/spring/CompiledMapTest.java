@@ -0,0 +1,105 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.CompiledMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CompiledMapTest {
+
+    private CompiledMap compiled;
+
+    @Before
+    public void compile() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("tenant", "default");
+        data.put("db.url", "jdbc:${db.host}/${tenant}");
+        data.put("db.host", "localhost");
+        data.put("report.title", "Report of ${tenant}");
+        data.put("unrelated", "big unrelated value");
+        compiled = MapUtils.compile(data);
+    }
+
+    @Test
+    public void baseResolved() {
+        assertEquals(
+                ImmutableMap.of(
+                        "tenant", "default",
+                        "db.url", "jdbc:localhost/default",
+                        "db.host", "localhost",
+                        "report.title", "Report of default",
+                        "unrelated", "big unrelated value"),
+                compiled.getResolvedValues());
+        assertSame(compiled.getResolvedValues(), compiled.resolve(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void overridesResolvedAgainstTheBase() {
+        final Map<String, String> acme = compiled.resolve(ImmutableMap.of("tenant", "acme", "extra", "${db.url}?ssl"));
+        final Map<String, String> other = compiled.resolve(ImmutableMap.of("db.host", "db.other"));
+
+        assertEquals(
+                ImmutableMap.builder()
+                        .put("tenant", "acme")
+                        .put("db.url", "jdbc:localhost/acme")
+                        .put("db.host", "localhost")
+                        .put("report.title", "Report of acme")
+                        .put("unrelated", "big unrelated value")
+                        .put("extra", "jdbc:localhost/acme?ssl").build(),
+                acme);
+        assertEquals("jdbc:db.other/default", other.get("db.url"));
+        assertEquals("Report of default", other.get("report.title"));
+        assertEquals("jdbc:localhost/default", compiled.getResolvedValues().get("db.url"));
+        assertSame(compiled.getResolvedValues().get("unrelated"), acme.get("unrelated"));
+    }
+
+    @Test
+    public void layersLookedUpInOrder() {
+        final Map<String, String> env = ImmutableMap.of("tenant", "env", "db.host", "env.host", "env.only", "${db.host}");
+        final Map<String, String> host = ImmutableMap.of("db.host", "host.local");
+
+        final Map<String, String> resolved = compiled.resolve(Arrays.asList(env, host));
+
+        assertEquals(
+                ImmutableMap.builder()
+                        .put("tenant", "env")
+                        .put("db.url", "jdbc:host.local/env")
+                        .put("db.host", "host.local")
+                        .put("report.title", "Report of env")
+                        .put("unrelated", "big unrelated value")
+                        .put("env.only", "host.local").build(),
+                resolved);
+        assertEquals(6, resolved.size());
+        assertEquals(6, resolved.entrySet().size());
+    }
+
+    @Test
+    public void layersResolvedWithNoCompiledBase() {
+        assertEquals(
+                ImmutableMap.of("a", "2 and 1", "b", "2", "c", "1"),
+                MapUtils.resolveLayers(Arrays.<Map<String, String>>asList(
+                        ImmutableMap.of("a", "${b} and ${c}", "b", "0"),
+                        ImmutableMap.of("b", "1", "c", "1"),
+                        ImmutableMap.of("b", "2"))));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void overlaidEntriesReadOnly() {
+        final Map<String, String> acme = compiled.resolve(ImmutableMap.of("tenant", "acme"));
+
+        acme.entrySet().iterator().next().setValue("changed");
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void circularOverrideDetected() {
+        compiled.resolve(ImmutableMap.of("db.host", "${db.url}"));
+    }
+}
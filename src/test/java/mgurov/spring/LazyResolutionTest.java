@@ -0,0 +1,58 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyResolutionTest {
+
+    @Test
+    public void resolvesOnlyWhatIsAskedFor() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("asked", "${referenced}!");
+        data.put("referenced", "value");
+        data.put("never.asked", "${broken} ${never.asked}");
+
+        final Map<String, String> lazy = MapUtils.resolveValues(MapValuesResolutionAlgorithm.LAZY, data);
+
+        assertEquals("value!", lazy.get("asked"));
+        assertEquals(3, lazy.size());
+        assertTrue(lazy.containsKey("never.asked"));
+        assertFalse(lazy.containsKey("missing"));
+        assertNull(lazy.get("missing"));
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void circularReferenceDetectedUponGet() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("fine", "value");
+        data.put("circular", "${circular}");
+
+        final Map<String, String> lazy = MapUtils.resolveValues(MapValuesResolutionAlgorithm.LAZY, data);
+        assertEquals("value", lazy.get("fine"));
+
+        try {
+            lazy.get("circular");
+        } finally {
+            assertEquals("the view is still usable", "value", lazy.get("fine"));
+        }
+    }
+
+    @Test
+    public void iterationResolvesEverything() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("a", "${b}${b}");
+        data.put("b", "b");
+
+        assertEquals(
+                ImmutableMap.of("a", "bb", "b", "b"),
+                ImmutableMap.copyOf(MapUtils.resolveValues(MapValuesResolutionAlgorithm.LAZY, data)));
+    }
+}
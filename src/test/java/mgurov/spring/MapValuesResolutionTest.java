@@ -7,11 +7,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assume.assumeFalse;
 
 @RunWith(Parameterized.class)
 public class MapValuesResolutionTest {
@@ -24,7 +28,11 @@ public class MapValuesResolutionTest {
 
     @Parameterized.Parameters(name= "{index}: {0}")
     public static Iterable<Object[]> data() {
-        return Arrays.asList(new Object[]{MapValuesResolutionAlgorithm.SIMPLE_SQUASH}, new Object[]{MapValuesResolutionAlgorithm.BUILD_TREE});
+        final List<Object[]> result = newArrayList();
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            result.add(new Object[]{algorithm});
+        }
+        return result;
     }
 
     @Test
@@ -90,14 +98,181 @@ public class MapValuesResolutionTest {
                 MapUtils.merge(mergeAlgorithm, new PropertyValueParser("#(", ")"), data));
     }
 
+    @Test
+    public void keepingShortLiteralParts() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("single.char", "x");
+        data.put("single.char.after.placeholder", "${single.char}y");
+        data.put("empty", "");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("single.char", "x")
+                        .put("single.char.after.placeholder", "xy")
+                        .put("empty", "").build(),
+                MapUtils.resolveValues(mergeAlgorithm, data));
+    }
+
+    @Test
+    public void unterminatedPlaceholderLeftAsIs() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("unterminated", "${key} and ${key");
+        data.put("key", "value");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("unterminated", "value and ${key")
+                        .put("key", "value").build(),
+                MapUtils.resolveValues(mergeAlgorithm, data));
+    }
+
+    @Test
+    public void regexParserFallback() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("forward.reference", "#(referenced.earlier) and #(unresolved).");
+        data.put("referenced.earlier", "value");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("forward.reference", "value and #(unresolved).")
+                        .put("referenced.earlier", "value").build(),
+                MapUtils.merge(mergeAlgorithm, new PropertyValueParser("#(", ")", PropertyValueParser.Mode.REGEX), data));
+    }
+
+    @Test
+    public void defaultValuesUsedForMissingKeysOnly() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("present.later", "${missing:fallback}");
+        data.put("with.default", "${present:fallback} ${present.later:other}");
+        data.put("resolved.default", "${missing:${present}!}");
+        data.put("empty.default", "[${missing:}]");
+        data.put("no.default", "${missing}");
+        data.put("present", "value");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("present.later", "fallback")
+                        .put("with.default", "value fallback")
+                        .put("resolved.default", "value!")
+                        .put("empty.default", "[]")
+                        .put("no.default", "${missing}")
+                        .put("present", "value").build(),
+                MapUtils.merge(mergeAlgorithm, withDefaults(), data));
+    }
+
+    @Test
+    public void defaultValueNotResolvedForPresentKey() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("self", "${present:${self}}");
+        data.put("present", "value");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("self", "value")
+                        .put("present", "value").build(),
+                ImmutableMap.copyOf(MapUtils.merge(mergeAlgorithm, withDefaults(), data)));
+    }
+
+    @Test
+    public void valueSeparatorDisabledByDefault() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("reference", "${key:with:colons}");
+        data.put("key:with:colons", "value");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("reference", "value")
+                        .put("key:with:colons", "value").build(),
+                MapUtils.resolveValues(mergeAlgorithm, data));
+    }
+
+    @Test
+    public void nestedPlaceholders() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("url", "${db.${env}.url}/${db.${env}.name}");
+        data.put("unresolved", "${db.${nowhere}.url}");
+        data.put("env", "${stage}");
+        data.put("db.prod.url", "jdbc:${db.prod.host}");
+        data.put("db.prod.host", "prod-host");
+        data.put("db.prod.name", "main");
+        data.put("stage", "prod");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("url", "jdbc:prod-host/main")
+                        .put("unresolved", "${db.${nowhere}.url}")
+                        .put("env", "prod")
+                        .put("db.prod.url", "jdbc:prod-host")
+                        .put("db.prod.host", "prod-host")
+                        .put("db.prod.name", "main")
+                        .put("stage", "prod").build(),
+                MapUtils.resolveValues(mergeAlgorithm, data));
+    }
+
+    @Test
+    public void nestedPlaceholderWithDefault() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("timeout", "${timeout.${env:dev}:${timeout.default}}");
+        data.put("missing.timeout", "${timeout.${missing}:${timeout.default}}");
+        data.put("timeout.dev", "5");
+        data.put("timeout.default", "30");
+
+        assertEquals(
+                ImmutableMap.<String, String>builder()
+                        .put("timeout", "5")
+                        .put("missing.timeout", "30")
+                        .put("timeout.dev", "5")
+                        .put("timeout.default", "30").build(),
+                MapUtils.merge(mergeAlgorithm, withDefaults(), data));
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void detectCircularDependencyThroughNestedPlaceholder() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("dynamic", "${${name}}");
+        data.put("name", "closing");
+        data.put("closing", "closing the circle ${dynamic}");
+
+        ImmutableMap.copyOf(MapUtils.resolveValues(mergeAlgorithm, data));
+    }
+
+    @Test
+    public void concurrentMergesIsolated() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Map<String, String>>> results = newArrayList();
+            for (int i = 0; i < 200; i++) {
+                final Map<String, String> data = Maps.newLinkedHashMap();
+                data.put("forward.reference", "${referenced} of ${caller}");
+                data.put("referenced", "value " + i);
+                data.put("caller", "caller " + i);
+                results.add(executor.submit(new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() {
+                        return ImmutableMap.copyOf(MapUtils.resolveValues(mergeAlgorithm, data));
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("value " + i + " of caller " + i, results.get(i).get().get("forward.reference"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static PropertyValueParser withDefaults() {
+        return new PropertyValueParser("${", "}", PropertyValueParser.DEFAULT_VALUE_SEPARATOR, PropertyValueParser.Mode.SCANNER);
+    }
+
     @Test(expected = CircularReferenceException.class)
     public void detectCircularDependency() {
-        assumeFalse("The BUILD_TREE algo appeared to be tricker in the way of determining the ", mergeAlgorithm == MapValuesResolutionAlgorithm.BUILD_TREE);
         Map<String, String> data = Maps.newLinkedHashMap();
         data.put("forward.reference", "${referenced.earlier}");
         data.put("referenced.earlier", "closing the circle ${forward.reference}");
 
-        MapUtils.resolveValues(mergeAlgorithm, data);
+        //copying to make sure lazy algorithms resolve as well
+        ImmutableMap.copyOf(MapUtils.resolveValues(mergeAlgorithm, data));
     }
 
 }
@@ -0,0 +1,62 @@
+package mgurov.spring;
+
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.ParallelMapValuesResolver;
+import mgurov.spring.impl.PropertyValueParser;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelResolutionTest {
+
+    @Test
+    public void sameResultAsSequentialOnRandomMaps() {
+        for (long seed = 0; seed < 20; seed++) {
+            final Map<String, String> input = randomMap(new Random(seed), 5000);
+
+            assertEquals(
+                    "seed " + seed,
+                    MapUtils.resolveValues(MapValuesResolutionAlgorithm.SIMPLE_SQUASH, input),
+                    new ParallelMapValuesResolver(new PropertyValueParser(), 4, 16).merge(input));
+        }
+    }
+
+    @Test
+    public void defaultParallelismAlgorithm() {
+        final Map<String, String> input = randomMap(new Random(42), 20000);
+
+        assertEquals(
+                MapUtils.resolveValues(MapValuesResolutionAlgorithm.TOPOLOGICAL, input),
+                MapUtils.resolveValues(MapValuesResolutionAlgorithm.PARALLEL, input));
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void detectCircularDependency() {
+        final Map<String, String> input = randomMap(new Random(7), 1000);
+        //closing the circle explicitly rather than relying on the random references
+        input.put("key999", "${key0}");
+        input.put("key0", "${key999}");
+
+        new ParallelMapValuesResolver(new PropertyValueParser(), 4, 16).merge(input);
+    }
+
+    /**
+     * Keys reference only the keys of lower numbers, some of the references are missing.
+     */
+    private static Map<String, String> randomMap(Random random, int size) {
+        final Map<String, String> result = Maps.newHashMap();
+        for (int i = 0; i < size; i++) {
+            final StringBuilder value = new StringBuilder("v" + i);
+            final int references = i == 0 ? 0 : random.nextInt(4);
+            for (int r = 0; r < references; r++) {
+                final int referenced = random.nextInt(i);
+                value.append(random.nextInt(10) == 0 ? "${missing" : "${key").append(referenced).append("}-");
+            }
+            result.put("key" + i, value.toString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package mgurov.spring;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PropertiesFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PropertiesFileCache cache = new PropertiesFileCache();
+
+    @Test
+    public void prototypesFoundAndLoadedOnce() {
+        final PropertiesPrototypesNameFinder finder = new PropertiesPrototypesNameFinder(cache);
+        finder.setPrototypeKey("this.prototype");
+        final PropertyFileNamesSplitter splitter = new PropertyFileNamesSplitter();
+        splitter.setPrefix("classpath:mgurov/spring/");
+        splitter.setSuffix(".properties");
+        splitter.setPrototypeNamesFinder(finder);
+
+        final Map<String, String> sample = cache.load("classpath:mgurov/spring/test-sample.properties");
+        final Map<String, String> resolved = MapUtils.resolveValues(MapValuesResolutionAlgorithm.SIMPLE_SQUASH,
+                cache.loadAll(splitter.split("test-sample")));
+
+        assertSame(sample, cache.load("classpath:mgurov/spring/test-sample.properties"));
+        assertEquals("template applied to sample", resolved.get("template"));
+        assertEquals("overriden in sample", resolved.get("overriden"));
+        assertEquals(resolved, MapUtils.resolveLayers(cache.loadLayers(splitter.split("test-sample"))));
+    }
+
+    @Test
+    public void defaultPrototypeKey() throws IOException {
+        final File file = write("env.properties", "prototype=base\n");
+        assertEquals("base", new PropertiesPrototypesNameFinder(cache).findPrototypeName(file.toURI().toString()));
+        assertNull(new PropertiesPrototypesNameFinder(cache).findPrototypeName("mgurov/spring/test-prototype.properties"));
+    }
+
+    @Test
+    public void laterFilesOverride() throws IOException {
+        final String first = write("first.properties", "a=1\nb=1\n").toURI().toString();
+        final String second = write("second.properties", "b=2\n").toURI().toString();
+
+        final Map<String, String> merged = cache.loadAll(Arrays.asList(first, second));
+
+        assertEquals("1", merged.get("a"));
+        assertEquals("2", merged.get("b"));
+    }
+
+    @Test
+    public void concurrentlyLoadedFilesSquashedInOrder() throws IOException {
+        final List<String> locations = newArrayList();
+        for (int i = 0; i < 40; i++) {
+            locations.add(write("file" + i + ".properties", "shared=" + i + "\nown" + i + "=${shared}\n").toURI().toString());
+        }
+
+        final Map<String, String> merged = cache.loadAll(locations, 8);
+
+        assertEquals(cache.loadAll(locations), merged);
+        assertEquals("39", merged.get("shared"));
+        assertEquals("39", MapUtils.resolveValues(MapValuesResolutionAlgorithm.SIMPLE_SQUASH, merged).get("own0"));
+    }
+
+    @Test
+    public void concurrentLoadingFailureReported() throws IOException {
+        final String existing = write("existing.properties", "a=1\n").toURI().toString();
+        try {
+            cache.loadAll(Arrays.asList(existing, "classpath:missing.properties"), 2);
+            fail("missing file loaded");
+        } catch (PropertiesLoadingException e) {
+            assertEquals("failed to load properties from classpath:missing.properties", e.getMessage());
+        }
+    }
+
+    @Test
+    public void reloadedOnceModified() throws IOException {
+        final File file = write("changing.properties", "a=1\n");
+        final String location = file.toURI().toString();
+        final Map<String, String> before = cache.load(location);
+
+        write("changing.properties", "a=2\n");
+        file.setLastModified(file.lastModified() + 2000);
+
+        assertEquals("1", before.get("a"));
+        assertEquals("2", cache.load(location).get("a"));
+    }
+
+    @Test
+    public void reloadedOnceLengthChangedWithinSameModificationTime() throws IOException {
+        final File file = write("rewritten.properties", "a=1\n");
+        final long lastModified = file.lastModified();
+        final String location = file.toURI().toString();
+        assertEquals("1", cache.load(location).get("a"));
+
+        write("rewritten.properties", "a=22\n");
+        file.setLastModified(lastModified);
+
+        assertEquals("22", cache.load(location).get("a"));
+    }
+
+    @Test
+    public void jarEntryLoadedOnceUnchanged() {
+        final String location = "classpath:META-INF/maven/com.google.guava/guava/pom.properties";
+        final Map<String, String> loaded = cache.load(location);
+
+        assertEquals("guava", loaded.get("artifactId"));
+        assertSame(loaded, cache.load(location));
+    }
+
+    @Test
+    public void missingFileReported() {
+        try {
+            cache.load("classpath:mgurov/spring/missing.properties");
+            fail("missing file loaded");
+        } catch (PropertiesLoadingException e) {
+            assertEquals("failed to load properties from classpath:mgurov/spring/missing.properties", e.getMessage());
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
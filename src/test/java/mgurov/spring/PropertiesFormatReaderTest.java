@@ -0,0 +1,103 @@
+package mgurov.spring;
+
+import mgurov.spring.impl.PropertiesFormatReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static com.google.common.collect.Maps.fromProperties;
+import static com.google.common.collect.Maps.newHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PropertiesFormatReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void sameAsPropertiesLoad() throws IOException {
+        assertSameAsPropertiesLoad("a=1\nb = 2\r\nc:3\rd 4\n  e\t=\f5\n" +
+                "# comment\n! comment \\\nnot.continued=x\n\n   \n" +
+                "f=multi\\\n    line\\\r\n\tvalue\n" +
+                "g=not\\\\\ncontinued\n" +
+                "h\\=key\\:with\\ separators=value\\n\\t\\r\\f\\x\n" +
+                "i=\\u0041\\u00e9\u00e9\n" +
+                "j==k\nl\n:m\n=n\n" +
+                "o=ends with backslash\\");
+    }
+
+    @Test
+    public void sameAsPropertiesLoadOnRandomInput() throws IOException {
+        final Random random = new Random(42);
+        final String alphabet = "ab=: \t\f\\\\\\\n\r#!u0aF";
+        for (int i = 0; i < 10000; i++) {
+            final StringBuilder input = new StringBuilder();
+            final int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsPropertiesLoad(input.toString());
+        }
+    }
+
+    @Test
+    public void largeFileReadAndReleased() throws IOException {
+        final Properties properties = new Properties();
+        for (int i = 0; i < 20000; i++) {
+            properties.setProperty("key " + i, "value\u00e9 ${key " + (i / 2) + "}\n=" + i);
+        }
+        final File file = folder.newFile("large.properties");
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            properties.store(os, "generated");
+        } finally {
+            os.close();
+        }
+        assertTrue(file.length() > 256 * 1024);
+
+        final Map<String, String> actual = newHashMap();
+        PropertiesFormatReader.read(file, actual);
+
+        assertEquals(fromProperties(properties), actual);
+        assertTrue(file.delete());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedUnicodeEscape() {
+        PropertiesFormatReader.read(ByteBuffer.wrap("a=\\u00g0".getBytes(ISO_8859_1)), newHashMap());
+    }
+
+    private static void assertSameAsPropertiesLoad(String input) throws IOException {
+        final byte[] bytes = input.getBytes(ISO_8859_1);
+        final Properties properties = new Properties();
+        Map<String, String> expected;
+        try {
+            properties.load(new ByteArrayInputStream(bytes));
+            expected = fromProperties(properties);
+        } catch (IllegalArgumentException e) {
+            expected = null;
+        }
+
+        Map<String, String> actual = newHashMap();
+        try {
+            PropertiesFormatReader.read(ByteBuffer.wrap(bytes), actual);
+        } catch (IllegalArgumentException e) {
+            actual = null;
+        }
+        assertEquals(input, expected, actual);
+    }
+}
@@ -1,10 +1,16 @@
 package mgurov.spring;
 
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class PropertyFilesSplittingTest {
 
@@ -51,6 +57,47 @@ public class PropertyFilesSplittingTest {
         );
     }
 
+    @Test
+    public void sharedPrototypesListedOnceAtTheLastPositionAndLookedUpOnce() {
+        final Multiset<String> lookups = HashMultiset.create();
+        cut.setPrototypeNamesFinder(new PropertyFileNamesSplitter.PrototypesNameFinder() {
+            @Override
+            public String findPrototypeName(String input) {
+                lookups.add(input);
+                if (input.equals("env1") || input.equals("env2")) {
+                    return "base";
+                }
+                if (input.equals("base")) {
+                    return "root";
+                }
+                return null;
+            }
+        });
+
+        assertEquals(
+                Arrays.asList("env1", "root", "base", "env2", "host"),
+                cut.split("env1,env2,host")
+        );
+        assertEquals(ImmutableMultiset.of("env1", "env2", "base", "root", "host"), lookups);
+    }
+
+    @Test
+    public void prototypeCircleDetected() {
+        cut.setPrototypeNamesFinder(new PropertyFileNamesSplitter.PrototypesNameFinder() {
+            @Override
+            public String findPrototypeName(String input) {
+                return ImmutableMap.of("a", "b", "b", "c", "c", "b").get(input);
+            }
+        });
+
+        try {
+            cut.split("a");
+            fail("circle expected");
+        } catch (CircularReferenceException e) {
+            assertEquals(Arrays.<List<String>>asList(Arrays.asList("b", "c", "b")), e.getCycles());
+        }
+    }
+
     @Test
     public void IgnoreEmptyStringReturnedByPrototypingFunction() {
         cut.setPrototypeNamesFinder(new PropertyFileNamesSplitter.PrototypesNameFinder() {
@@ -0,0 +1,89 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ReferenceIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceIndexTest {
+
+    private Map<String, String> data;
+
+    @Before
+    public void setUp() {
+        data = Maps.newLinkedHashMap();
+        data.put("tenant", "default");
+        data.put("db.host", "localhost");
+        data.put("db.url", "jdbc:${db.host}/${tenant}");
+        data.put("report.title", "Report of ${tenant} at ${missing}");
+        data.put("unrelated.a", "${unrelated.b}");
+        data.put("unrelated.b", "${unrelated.a}");
+    }
+
+    @Test
+    public void whoUsesKey() {
+        final ReferenceIndex index = MapUtils.indexReferences(data);
+
+        assertEquals(ImmutableSet.of("db.url", "report.title"), index.getReferencedBy("tenant"));
+        assertEquals(ImmutableSet.of("report.title"), index.getReferencedBy("missing"));
+        assertEquals(ImmutableSet.of("db.host", "tenant"), index.getReferences("db.url"));
+        assertTrue(index.getReferencedBy("db.url").isEmpty());
+        assertEquals(ImmutableSet.of("unrelated.a"), index.getUsers("unrelated.b"));
+    }
+
+    @Test
+    public void transitiveUsers() {
+        data.put("jdbc.properties", "url=${db.url}");
+
+        assertEquals(ImmutableSet.of("db.url", "jdbc.properties"), MapUtils.indexReferences(data).getUsers("db.host"));
+    }
+
+    @Test
+    public void onlyReachableKeysResolved() {
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            assertEquals(algorithm.name(),
+                    ImmutableMap.of(
+                            "db.url", "jdbc:localhost/default",
+                            "db.host", "localhost",
+                            "tenant", "default"),
+                    Maps.newHashMap(MapUtils.resolveReachable(algorithm, data, Arrays.asList("db.url", "absent"))));
+        }
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void reachableCircleReported() {
+        MapUtils.resolveReachable(MapValuesResolutionAlgorithm.SIMPLE_SQUASH, data, Collections.singleton("unrelated.a"));
+    }
+
+    @Test
+    public void defaultValuesReferencesReachable() {
+        data.put("timeout", "${custom.timeout:${default.timeout}}");
+        data.put("default.timeout", "30");
+        final ReferenceIndex index = new ReferenceIndex(new PropertyValueParser("${", "}", ":", PropertyValueParser.Mode.SCANNER), data);
+
+        assertEquals(ImmutableSet.of("timeout", "default.timeout"), index.getReachable(Collections.singleton("timeout")));
+        assertFalse(index.hasComputedKeys("timeout"));
+    }
+
+    @Test
+    public void computedKeysPreventPruning() {
+        data.put("env", "default");
+        data.put("current.db", "${db.${env}}");
+        final ReferenceIndex index = MapUtils.indexReferences(data);
+
+        assertTrue(index.hasComputedKeys("current.db"));
+        assertEquals(data.keySet(), index.getReachable(Collections.singleton("current.db")));
+        assertEquals(ImmutableSet.of("tenant"), index.getReachable(Collections.singleton("tenant")));
+    }
+}
@@ -0,0 +1,181 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReloadablePropertiesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void changedKeysReloaded() throws IOException {
+        final List<String> locations = Arrays.asList(
+                write("base.properties", "host=localhost\nurl=http://${host}/${path}\nunrelated=1\n"),
+                write("env.properties", "path=app\n"));
+        final ReloadableProperties properties = new ReloadableProperties(locations);
+        final Map<String, String> before = properties.getValues();
+        assertEquals("http://localhost/app", properties.get("url"));
+
+        write("env.properties", "path=other\nadded=${host}\n");
+
+        assertEquals(ImmutableSet.of("path", "url", "added"), properties.reload());
+        assertEquals("http://localhost/other", properties.get("url"));
+        assertEquals("localhost", properties.get("added"));
+        assertEquals("http://localhost/app", before.get("url"));
+    }
+
+    @Test
+    public void removedKeysReported() throws IOException {
+        final List<String> locations = Arrays.asList(write("base.properties", "a=1\nb=${a}\n"));
+        final ReloadableProperties properties = new ReloadableProperties(locations);
+
+        write("base.properties", "b=${a}\n");
+
+        assertEquals(ImmutableSet.of("a", "b"), properties.reload());
+        assertEquals("${a}", properties.get("b"));
+        assertEquals(1, properties.getValues().size());
+    }
+
+    @Test
+    public void nothingPublishedWithoutChanges() throws IOException {
+        final ReloadableProperties properties = new ReloadableProperties(Arrays.asList(write("base.properties", "a=1\n")));
+        final Map<String, String> before = properties.getValues();
+
+        assertTrue(properties.reload().isEmpty());
+        assertSame(before, properties.getValues());
+    }
+
+    @Test
+    public void failedReloadKeepsValues() throws IOException {
+        final List<String> locations = Arrays.asList(write("base.properties", "a=1\nb=${a}\n"));
+        final ReloadableProperties properties = new ReloadableProperties(locations);
+        final Map<String, String> before = properties.getValues();
+
+        write("base.properties", "a=${b}\nb=${a}\n");
+        try {
+            properties.reload();
+            fail("circle loaded");
+        } catch (CircularReferenceException e) {
+            assertSame(before, properties.getValues());
+        }
+
+        write("base.properties", "a=2\nb=${a}\n");
+        assertEquals(ImmutableSet.of("a", "b"), properties.reload());
+        assertEquals("2", properties.get("b"));
+    }
+
+    @Test
+    public void watchedFilesReloadedAndListenersNotified() throws IOException, InterruptedException {
+        final List<String> locations = Arrays.asList(write("base.properties", "host=localhost\nurl=http://${host}/\n"));
+        final ReloadableProperties properties = new ReloadableProperties(locations, 50, new PropertiesFileCache());
+        final BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<Set<String>>();
+        final BlockingQueue<RuntimeException> failures = new LinkedBlockingQueue<RuntimeException>();
+        properties.addListener(new ReloadableProperties.Listener() {
+            @Override
+            public void onChange(Set<String> changedKeys, Map<String, String> values) {
+                changes.add(changedKeys);
+            }
+
+            @Override
+            public void onReloadFailure(RuntimeException e) {
+                failures.add(e);
+            }
+        });
+        properties.start();
+        try {
+            write("unrelated.properties", "host=ignored\n");
+            write("base.properties", "host=example.com\nurl=http://${host}/\n");
+
+            final Set<String> changed = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no reload", changed);
+            assertEquals(ImmutableSet.of("host", "url"), changed);
+            assertEquals("http://example.com/", properties.get("url"));
+            assertTrue(failures.isEmpty());
+        } finally {
+            properties.close();
+        }
+    }
+
+    @Test
+    public void modifiedLocationsReadAgainWithinSameTimestamp() throws IOException {
+        final String location = write("base.properties", "a=1\nb=${a}\n");
+        final File file = new File(folder.getRoot(), "base.properties");
+        final long lastModified = file.lastModified();
+        final ReloadableProperties properties = new ReloadableProperties(Arrays.asList(location));
+
+        write("base.properties", "a=2\nb=${a}\n");
+        file.setLastModified(lastModified);
+
+        assertEquals(ImmutableSet.of("a", "b"), properties.reload(Arrays.asList(location)));
+        assertEquals("2", properties.get("b"));
+    }
+
+    @Test
+    public void quickWatchedEditsNotLost() throws IOException, InterruptedException {
+        final String location = write("base.properties", "a=1\n");
+        final File file = new File(folder.getRoot(), "base.properties");
+        final long lastModified = file.lastModified();
+        final ReloadableProperties properties = new ReloadableProperties(Arrays.asList(location), 50, new PropertiesFileCache());
+        final BlockingQueue<Map<String, String>> changes = new LinkedBlockingQueue<Map<String, String>>();
+        properties.addListener(new ReloadableProperties.Listener() {
+            @Override
+            public void onChange(Set<String> changedKeys, Map<String, String> values) {
+                changes.add(values);
+            }
+
+            @Override
+            public void onReloadFailure(RuntimeException e) {
+            }
+        });
+        properties.start();
+        try {
+            //same length and modification time, as if written within the same tick of the timestamps
+            write("base.properties", "a=2\n");
+            file.setLastModified(lastModified);
+            assertEquals("2", awaitValue(changes, "a"));
+
+            write("base.properties", "a=3\n");
+            file.setLastModified(lastModified);
+            assertEquals("3", awaitValue(changes, "a"));
+        } finally {
+            properties.close();
+        }
+    }
+
+    private static String awaitValue(BlockingQueue<Map<String, String>> changes, String key) throws InterruptedException {
+        final Map<String, String> values = changes.poll(10, TimeUnit.SECONDS);
+        assertNotNull("no reload", values);
+        return values.get(key);
+    }
+
+    private String write(String name, String content) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file.toURI().toString();
+    }
+}
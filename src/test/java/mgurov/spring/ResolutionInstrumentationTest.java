@@ -0,0 +1,74 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.RecordingInstrumentation;
+import mgurov.spring.impl.ResolutionStatistics;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionInstrumentationTest {
+
+    private final Map<String, String> data = Maps.newLinkedHashMap();
+
+    {
+        data.put("a", "${b} ${c}");
+        data.put("b", "${c}");
+        data.put("c", "${base} and ${missing}");
+        data.put("base", "root");
+    }
+
+    @Test
+    public void simpleSquashReparsesReferencedValues() {
+        final ResolutionStatistics statistics = resolve(MapValuesResolutionAlgorithm.SIMPLE_SQUASH);
+
+        //a: a, b, c, base, c, base; b: b, c, base; c: c, base; base
+        assertEquals(12, statistics.getParseCalls());
+        assertEquals(3, statistics.getMaxReferenceDepth());
+        assertEquals(ImmutableMap.of("a", 1L, "b", 2L, "c", 4L, "base", 5L), statistics.getExpansionCounts());
+        assertEquals(4, statistics.getPlaceholderMisses());
+    }
+
+    @Test
+    public void memoizedSquashExpandsEachValueOnce() {
+        final ResolutionStatistics statistics = resolve(MapValuesResolutionAlgorithm.MEMOIZED_SQUASH);
+
+        assertEquals(4, statistics.getParseCalls());
+        assertEquals(ImmutableMap.of("a", 1L, "b", 1L, "c", 1L, "base", 1L), statistics.getExpansionCounts());
+        assertEquals(1, statistics.getPlaceholderMisses());
+        assertEquals(4, statistics.getPlaceholderHits());
+    }
+
+    @Test
+    public void topologicalReportsTheDepthAndTheMostReferencedKeys() {
+        final ResolutionStatistics statistics = resolve(MapValuesResolutionAlgorithm.TOPOLOGICAL);
+
+        assertEquals(3, statistics.getMaxReferenceDepth());
+        assertEquals("c", statistics.getMostReferencedKeys(1).get(0).getKey());
+        assertEquals(2L, statistics.getMostReferencedKeys(1).get(0).getValue().longValue());
+    }
+
+    @Test
+    public void everyAlgorithmTimesEveryKey() {
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            final RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+            //copying for the lazy algorithm to get resolved
+            ImmutableMap.copyOf(MapUtils.merge(algorithm, new PropertyValueParser(), instrumentation, data));
+
+            final ResolutionStatistics statistics = instrumentation.snapshot();
+            assertEquals(algorithm.name(), data.keySet(), statistics.getResolutionNanos().keySet());
+            assertTrue(algorithm.name(), statistics.getParseCalls() >= data.size());
+        }
+    }
+
+    private ResolutionStatistics resolve(MapValuesResolutionAlgorithm algorithm) {
+        final RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+        MapUtils.merge(algorithm, new PropertyValueParser(), instrumentation, data);
+        return instrumentation.snapshot();
+    }
+}
@@ -0,0 +1,141 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ResolutionLimits;
+import mgurov.spring.impl.ResolvedValuesSink;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionLimitsTest {
+
+    private final PropertyValueParser parser = new PropertyValueParser("${", "}", ":", PropertyValueParser.Mode.SCANNER);
+
+    /**
+     * k30 would be 2^30 characters long
+     */
+    private static Map<String, String> doublingLevels(int levels) {
+        final Map<String, String> result = Maps.newLinkedHashMap();
+        result.put("k0", "x");
+        for (int i = 1; i <= levels; i++) {
+            result.put("k" + i, "${k" + (i - 1) + "}${k" + (i - 1) + "}");
+        }
+        return result;
+    }
+
+    @Test
+    public void tooLongValueStopped() {
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            final ResolutionLimitExceededException e = expectExceeded(algorithm, new ResolutionLimits(1000, Long.MAX_VALUE, Integer.MAX_VALUE), doublingLevels(30));
+            assertNotNull(algorithm.name(), e.getKey());
+            assertTrue(algorithm.name() + ": " + e.getMessage(), e.getMessage().contains("limit of 1000 characters"));
+        }
+    }
+
+    @Test
+    public void tooLongTotalStopped() {
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            final ResolutionLimitExceededException e = expectExceeded(algorithm, new ResolutionLimits(Integer.MAX_VALUE, 5000, Integer.MAX_VALUE), doublingLevels(30));
+            assertNull(algorithm.name(), e.getKey());
+            assertTrue(algorithm.name() + ": " + e.getMessage(), e.getMessage().contains("limit of 5000 characters in total"));
+        }
+    }
+
+    @Test
+    public void totalOfShortValuesChecked() {
+        final Map<String, String> data = Maps.newLinkedHashMap();
+        for (int i = 0; i < 10; i++) {
+            data.put("key" + i, "0123456789");
+        }
+        data.put("all", "${key0}${key1}${key2}${key3}${key4}${key5}${key6}${key7}${key8}${key9}");
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            expectExceeded(algorithm, new ResolutionLimits(100, 150, Integer.MAX_VALUE), data);
+            assertEquals(algorithm.name(), 11, MapUtils.merge(algorithm, parser, new ResolutionLimits(100, 200, 1), data).size());
+        }
+    }
+
+    @Test
+    public void tooDeepReferencesStopped() {
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            final ResolutionLimitExceededException e = expectExceeded(algorithm, new ResolutionLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 10), doublingLevels(30));
+            assertNotNull(algorithm.name(), e.getKey());
+            assertTrue(algorithm.name() + ": " + e.getMessage(), e.getMessage().contains("limit of 10 levels"));
+        }
+    }
+
+    @Test
+    public void withinLimitsResolved() {
+        final Map<String, String> data = doublingLevels(3);
+        data.put("timeout", "${custom.timeout:${default.timeout}}");
+        data.put("default.timeout", "30");
+        data.put("missing", "${absent}");
+        final Map<String, String> expected = ImmutableMap.<String, String>builder()
+                .put("k0", "x").put("k1", "xx").put("k2", "xxxx").put("k3", "xxxxxxxx")
+                .put("timeout", "30").put("default.timeout", "30").put("missing", "${absent}")
+                .build();
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            assertEquals(algorithm.name(), expected, Maps.newHashMap(MapUtils.merge(algorithm, parser, new ResolutionLimits(20, 40, 3), data)));
+        }
+    }
+
+    @Test
+    public void depthCountsTheLongestChain() {
+        final Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("a", "${b} and ${c}");
+        data.put("b", "${c}");
+        data.put("c", "${d}");
+        data.put("d", "end");
+        for (MapValuesResolutionAlgorithm algorithm : MapValuesResolutionAlgorithm.values()) {
+            assertEquals(algorithm.name(), "end and end", MapUtils.merge(algorithm, parser, new ResolutionLimits(100, 100, 3), data).get("a"));
+            assertNotNull(algorithm.name(), expectExceeded(algorithm, new ResolutionLimits(100, 100, 2), data).getKey());
+        }
+    }
+
+    @Test
+    public void streamedValuesLimited() throws IOException {
+        final List<String> streamed = Lists.newArrayList();
+        final ResolvedValuesSink sink = new ResolvedValuesSink() {
+            @Override
+            public void accept(String key, String value) {
+                streamed.add(key);
+            }
+        };
+        try {
+            MapUtils.resolveValues(doublingLevels(30), new ResolutionLimits(1000, 5000, 10), sink);
+            throw new AssertionError("streamed beyond the limits");
+        } catch (ResolutionLimitExceededException e) {
+            //the keys within the limits have been streamed before
+            assertEquals(Lists.newArrayList("k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"), streamed);
+            assertEquals("k10", e.getKey());
+        }
+
+        streamed.clear();
+        MapUtils.resolveValues(doublingLevels(9), new ResolutionLimits(1000, 5000, 10), sink);
+        assertEquals(10, streamed.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimitRejected() {
+        new ResolutionLimits(-1, 10, 10);
+    }
+
+    private ResolutionLimitExceededException expectExceeded(MapValuesResolutionAlgorithm algorithm, ResolutionLimits limits, Map<String, String> data) {
+        try {
+            //copying for the lazy algorithm to get resolved
+            Maps.newHashMap(MapUtils.merge(algorithm, parser, limits, data));
+        } catch (ResolutionLimitExceededException e) {
+            return e;
+        }
+        throw new AssertionError(algorithm.name() + " resolved beyond " + limits);
+    }
+}
@@ -0,0 +1,117 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ResolutionSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ResolutionSessionTest {
+
+    private ResolutionSession session;
+
+    @Before
+    public void openSession() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("host", "localhost");
+        data.put("url", "http://${host}/${path}");
+        data.put("service.url", "${url}/service");
+        data.put("unrelated", "as is");
+        session = MapUtils.openSession(data);
+    }
+
+    @Test
+    public void initiallyResolvedAsAWhole() {
+        assertEquals(
+                ImmutableMap.of(
+                        "host", "localhost",
+                        "url", "http://localhost/${path}",
+                        "service.url", "http://localhost/${path}/service",
+                        "unrelated", "as is"),
+                session.getResolvedValues());
+    }
+
+    @Test
+    public void changePropagatedToTheDependents() {
+        assertEquals(
+                ImmutableSet.of("host", "url", "service.url"),
+                session.apply(new ResolutionSession.Changes().put("host", "example.com")));
+
+        assertEquals("http://example.com/${path}/service", session.getResolvedValues().get("service.url"));
+    }
+
+    @Test
+    public void addingMissingKeyResolvesItsPlaceholders() {
+        assertEquals(
+                ImmutableSet.of("path", "url", "service.url"),
+                session.apply(new ResolutionSession.Changes().put("path", "root")));
+
+        assertEquals("http://localhost/root/service", session.getResolvedValues().get("service.url"));
+    }
+
+    @Test
+    public void dynamicallyReferencedKeysFollowed() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("env", "dev");
+        data.put("db.dev.url", "jdbc:dev");
+        data.put("db.url", "${db.${env}.url}");
+        session = new ResolutionSession(new PropertyValueParser("${", "}", ":", PropertyValueParser.Mode.SCANNER), data);
+
+        assertEquals(
+                ImmutableSet.of("db.prod.url", "env", "db.url"),
+                session.apply(new ResolutionSession.Changes().put("db.prod.url", "jdbc:prod").put("env", "prod")));
+        assertEquals("jdbc:prod", session.getResolvedValues().get("db.url"));
+
+        assertEquals(
+                ImmutableSet.of("db.prod.url", "db.url"),
+                session.apply(new ResolutionSession.Changes().put("db.prod.url", "jdbc:${env}:2")));
+        assertEquals("jdbc:prod:2", session.getResolvedValues().get("db.url"));
+
+        assertEquals(
+                ImmutableSet.of("db.dev.url"),
+                session.apply(new ResolutionSession.Changes().put("db.dev.url", "jdbc:changed")));
+    }
+
+    @Test
+    public void removalLeavesPlaceholdersIntact() {
+        assertEquals(
+                ImmutableSet.of("host", "url", "service.url"),
+                session.apply(new ResolutionSession.Changes().remove("host")));
+
+        assertEquals(
+                ImmutableMap.of(
+                        "url", "http://${host}/${path}",
+                        "service.url", "http://${host}/${path}/service",
+                        "unrelated", "as is"),
+                session.getResolvedValues());
+    }
+
+    @Test
+    public void sameValueIsNotReportedAsChanged() {
+        assertEquals(
+                ImmutableSet.of(),
+                session.apply(new ResolutionSession.Changes().put("host", "localhost").put("unrelated", "as is")));
+    }
+
+    @Test
+    public void sessionIntactUponCircularReference() {
+        final Map<String, String> before = ImmutableMap.copyOf(session.getResolvedValues());
+        try {
+            session.apply(new ResolutionSession.Changes().put("host", "${service.url}"));
+            fail("circular reference expected");
+        } catch (CircularReferenceException expected) {
+        }
+
+        assertEquals(before, session.getResolvedValues());
+        assertEquals(
+                ImmutableSet.of("host", "url", "service.url"),
+                session.apply(new ResolutionSession.Changes().put("host", "example.com")));
+    }
+}
@@ -0,0 +1,58 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ResolutionTree;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResolutionTreeTest {
+
+    private final Map<String, String> data = Maps.newLinkedHashMap();
+
+    @Test
+    public void liveViewAndMaterializedMapAreEqual() {
+        data.put("shared", "${base}/shared");
+        data.put("a", "${shared}/a and ${shared}");
+        data.put("base", "root");
+        data.put("unresolved", "${missing}");
+
+        final Map<String, String> expected = ImmutableMap.of(
+                "shared", "root/shared",
+                "a", "root/shared/a and root/shared",
+                "base", "root",
+                "unresolved", "${missing}");
+        assertEquals(expected, tree(ResolutionTree.OutputMode.MATERIALIZED).merge(data));
+        assertEquals(expected, tree(ResolutionTree.OutputMode.LIVE_VIEW).merge(data));
+        assertEquals(expected, tree(ResolutionTree.OutputMode.COMPACT).merge(data));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void compactMapIsImmutable() {
+        data.put("a", "b");
+
+        tree(ResolutionTree.OutputMode.COMPACT).merge(data).remove("a");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void materializedMapIsImmutable() {
+        data.put("a", "b");
+
+        tree(ResolutionTree.OutputMode.MATERIALIZED).merge(data).put("a", "c");
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void selfReferenceDetected() {
+        data.put("self", "${self}");
+
+        tree(ResolutionTree.OutputMode.MATERIALIZED).merge(data);
+    }
+
+    private static ResolutionTree tree(ResolutionTree.OutputMode outputMode) {
+        return new ResolutionTree(new PropertyValueParser(), outputMode);
+    }
+}
@@ -0,0 +1,171 @@
+package mgurov.spring;
+
+import com.google.common.io.Files;
+import mgurov.spring.impl.SnapshotFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResolvedSnapshotCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotWrittenUponMissAndReadUponHit() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final List<String> locations = Arrays.asList(
+                write("base.properties", "host=localhost\nurl=http://${host}/${path}\n"),
+                write("env.properties", "path=\\u0434\\u043e\\u043c\n"));
+
+        final Map<String, String> missed = new ResolvedSnapshotCache(snapshot).load(locations);
+        assertTrue(snapshot.isFile());
+
+        final SnapshotFile file = SnapshotFile.read(snapshot);
+        assertEquals(locations, file.getLocations());
+        assertEquals(missed, file.getValues());
+
+        final Map<String, String> hit = new ResolvedSnapshotCache(snapshot).load(locations);
+        assertEquals("http://localhost/\u0434\u043e\u043c", hit.get("url"));
+        assertEquals(missed, hit);
+    }
+
+    @Test
+    public void splittingSkippedUponHit() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        write("base.properties", "name=base\ngreeting=hello ${name}\n");
+        write("env.properties", "prototype=base\nname=env\n");
+        final AtomicInteger lookups = new AtomicInteger();
+        final PropertyFileNamesSplitter splitter = splitter(lookups);
+
+        assertEquals("hello env", new ResolvedSnapshotCache(snapshot).load(splitter, "env").get("greeting"));
+        final int splittingLookups = lookups.get();
+        assertTrue(splittingLookups > 0);
+
+        assertEquals("hello env", new ResolvedSnapshotCache(snapshot).load(splitter, "env").get("greeting"));
+        assertEquals(splittingLookups, lookups.get());
+    }
+
+    @Test
+    public void modifiedFileMakesSnapshotStale() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final List<String> locations = Arrays.asList(write("base.properties", "name=base\ngreeting=hello ${name}\n"));
+        assertEquals("hello base", new ResolvedSnapshotCache(snapshot).load(locations).get("greeting"));
+
+        final File file = new File(folder.getRoot(), "base.properties");
+        write("base.properties", "name=changed\ngreeting=hello ${name}\n");
+        file.setLastModified(file.lastModified() + 2000);
+
+        assertEquals("hello changed", new ResolvedSnapshotCache(snapshot).load(locations).get("greeting"));
+        assertEquals("hello changed", SnapshotFile.read(snapshot).getValues().get("greeting"));
+    }
+
+    @Test
+    public void otherLocationsReplaceSnapshot() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final String base = write("base.properties", "name=base\n");
+        final String env = write("env.properties", "name=env\n");
+
+        assertEquals("base", new ResolvedSnapshotCache(snapshot).load(Arrays.asList(env, base)).get("name"));
+        assertEquals("env", new ResolvedSnapshotCache(snapshot).load(Arrays.asList(base, env)).get("name"));
+        assertEquals(Arrays.asList(base, env), SnapshotFile.read(snapshot).getLocations());
+    }
+
+    @Test
+    public void corruptSnapshotResolvedAgainAndRewritten() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final List<String> locations = Arrays.asList(write("base.properties", "name=base\ngreeting=hello ${name}\n"));
+        final Map<String, String> expected = new ResolvedSnapshotCache(snapshot).load(locations);
+        final byte[] bytes = Files.toByteArray(snapshot);
+
+        for (int i = 0; i < bytes.length; i++) {
+            final byte[] corrupt = bytes.clone();
+            corrupt[i] ^= 0x20;
+            Files.write(corrupt, snapshot);
+            assertEquals("flipped byte " + i, expected, new ResolvedSnapshotCache(snapshot).load(locations));
+            assertEquals("flipped byte " + i, expected, SnapshotFile.read(snapshot).getValues());
+        }
+    }
+
+    @Test
+    public void truncatedSnapshotResolvedAgain() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final List<String> locations = Arrays.asList(write("base.properties", "name=base\ngreeting=hello ${name}\n"));
+        final Map<String, String> expected = new ResolvedSnapshotCache(snapshot).load(locations);
+        final byte[] bytes = Files.toByteArray(snapshot);
+
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(Arrays.copyOf(bytes, length), snapshot);
+            assertEquals("truncated to " + length, expected, new ResolvedSnapshotCache(snapshot).load(locations));
+        }
+    }
+
+    @Test
+    public void missingFileReportedDespiteSnapshot() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final String location = write("base.properties", "name=base\n");
+        new ResolvedSnapshotCache(snapshot).load(Arrays.asList(location));
+
+        new File(folder.getRoot(), "base.properties").delete();
+        try {
+            new ResolvedSnapshotCache(snapshot).load(Arrays.asList(location));
+            fail("missing file loaded");
+        } catch (PropertiesLoadingException e) {
+            assertEquals("failed to load properties from " + location, e.getMessage());
+        }
+    }
+
+    @Test
+    public void unknownModificationTimeMakesContentCompared() throws IOException {
+        final File snapshot = new File(folder.getRoot(), "resolved.snapshot");
+        final List<String> locations = Arrays.asList(write("base.properties", "name=base\ngreeting=hello ${name}\n"));
+        final File file = new File(folder.getRoot(), "base.properties");
+        assertTrue(file.setLastModified(0));
+        assertEquals("hello base", new ResolvedSnapshotCache(snapshot).load(locations).get("greeting"));
+        assertEquals("hello base", new ResolvedSnapshotCache(snapshot).load(locations).get("greeting"));
+
+        //same length and no modification time to tell the change by
+        write("base.properties", "name=next\ngreeting=hello ${name}\n");
+        assertTrue(file.setLastModified(0));
+
+        assertEquals("hello next", new ResolvedSnapshotCache(snapshot).load(locations).get("greeting"));
+    }
+
+    private PropertyFileNamesSplitter splitter(final AtomicInteger lookups) {
+        final PropertiesPrototypesNameFinder finder = new PropertiesPrototypesNameFinder();
+        final PropertyFileNamesSplitter splitter = new PropertyFileNamesSplitter();
+        splitter.setPrefix(folder.getRoot().toURI().toString());
+        splitter.setSuffix(".properties");
+        splitter.setPrototypeNamesFinder(new PropertyFileNamesSplitter.PrototypesNameFinder() {
+            @Override
+            public String findPrototypeName(String input) {
+                lookups.incrementAndGet();
+                return finder.findPrototypeName(input);
+            }
+        });
+        return splitter;
+    }
+
+    private String write(String name, String content) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file.toURI().toString();
+    }
+}
@@ -0,0 +1,109 @@
+package mgurov.spring;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("test-resolving-configurer.xml")
+public class ResolvingPlaceholderConfigurerTest {
+
+    @Autowired
+    private PropertyLoadingSpringTest.Bean bean;
+
+    @Test
+    public void firstCheckThatSpringHasKickedIn() {
+        assertNotNull(bean);
+    }
+
+    @Test
+    public void shouldHaveNamePropertyResolved() {
+        assertEquals("sample", bean.get("name"));
+    }
+
+    @Test
+    public void overridenPropertyShallBeTakenFromSampleFile() {
+        assertEquals("overriden in sample", bean.get("overriden"));
+    }
+
+    @Test
+    public void templatedPropertyShallGetNameSubstituted() {
+        assertEquals("template applied to sample", bean.get("template"));
+    }
+
+    @Test
+    public void severalPlaceholdersWithinValue() {
+        assertEquals("sample: overriden in sample", bean.get("composite"));
+    }
+
+    @Test
+    public void defaultValueResolved() {
+        assertEquals("default of sample", bean.get("defaulted"));
+    }
+
+    @Test
+    public void unresolvablePlaceholderIgnored() {
+        assertEquals("${missing}", bean.get("unresolvable"));
+    }
+
+    @Test
+    public void springWayPropertiesResolvedTogether() {
+        final ResolvingPlaceholderConfigurer configurer = new ResolvingPlaceholderConfigurer();
+        final Properties properties = new Properties();
+        properties.setProperty("host", "localhost");
+        properties.setProperty("url", "http://${host}/");
+        configurer.setProperties(properties);
+
+        assertEquals("http://localhost/ or none", process(configurer, "${url} or ${missing:none}"));
+    }
+
+    @Test
+    public void unresolvablePlaceholderReported() {
+        final ResolvingPlaceholderConfigurer configurer = new ResolvingPlaceholderConfigurer();
+        final Properties properties = new Properties();
+        properties.setProperty("url", "http://${host}/");
+        configurer.setProperties(properties);
+
+        try {
+            process(configurer, "${url}");
+            fail("exception expected");
+        } catch (BeanDefinitionStoreException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Could not resolve placeholder 'host'"));
+        }
+    }
+
+    @Test
+    public void nullValueSubstituted() {
+        final ResolvingPlaceholderConfigurer configurer = new ResolvingPlaceholderConfigurer();
+        final Properties properties = new Properties();
+        properties.setProperty("nothing", "NULL");
+        configurer.setProperties(properties);
+        configurer.setNullValue("NULL");
+
+        assertNull(process(configurer, "${nothing}"));
+    }
+
+    private static Object process(ResolvingPlaceholderConfigurer configurer, String value) {
+        final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        final RootBeanDefinition definition = new RootBeanDefinition(Object.class);
+        definition.getPropertyValues().add("value", value);
+        beanFactory.registerBeanDefinition("bean", definition);
+
+        configurer.postProcessBeanFactory(beanFactory);
+
+        return beanFactory.getBeanDefinition("bean").getPropertyValues().getPropertyValue("value").getValue();
+    }
+}
@@ -0,0 +1,68 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import mgurov.spring.impl.PropertiesWriterSink;
+import mgurov.spring.impl.PropertyValueParser;
+import mgurov.spring.impl.ResolvedValuesSink;
+import mgurov.spring.impl.StreamingMapValuesResolver;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.google.common.collect.Maps.fromProperties;
+import static org.junit.Assert.assertEquals;
+
+public class StreamingResolutionTest {
+
+    @Test
+    public void sameValuesPushedInTheInputOrderWhateverTheCacheSize() throws IOException {
+        final Map<String, String> data = Maps.newLinkedHashMap();
+        for (int i = 0; i < 100; i++) {
+            data.put("key" + i, "${key" + (i + 1) + "}/${base}:" + i);
+        }
+        data.put("base", "base");
+
+        for (int cacheSize : new int[]{1, 10, 1000}) {
+            final Map<String, String> streamed = Maps.newLinkedHashMap();
+            new StreamingMapValuesResolver(new PropertyValueParser(), cacheSize).resolve(data, new ResolvedValuesSink() {
+                @Override
+                public void accept(String key, String value) {
+                    streamed.put(key, value);
+                }
+            });
+
+            assertEquals(ImmutableMap.copyOf(MapUtils.resolveValues(MapValuesResolutionAlgorithm.TOPOLOGICAL, data)), streamed);
+            assertEquals(data.keySet().iterator().next(), streamed.keySet().iterator().next());
+        }
+    }
+
+    @Test
+    public void writtenAsProperties() throws IOException {
+        final Map<String, String> data = ImmutableMap.of(
+                "plain", "${special}",
+                " special key=:", " \t\\ value #!=: \u00e9\u20ac\n",
+                "special", "${ special key=:}");
+
+        final StringWriter writer = new StringWriter();
+        MapUtils.resolveValues(data, new PropertiesWriterSink(writer));
+
+        final Properties properties = new Properties();
+        properties.load(new StringReader(writer.toString()));
+        assertEquals(MapUtils.resolveValues(MapValuesResolutionAlgorithm.SIMPLE_SQUASH, data), fromProperties(properties));
+    }
+
+    @Test(expected = CircularReferenceException.class)
+    public void circularReferenceDetected() throws IOException {
+        final Map<String, String> data = ImmutableMap.of("a", "${b}", "b", "${a}");
+        new StreamingMapValuesResolver(new PropertyValueParser(), 1).resolve(data, new ResolvedValuesSink() {
+            @Override
+            public void accept(String key, String value) {
+            }
+        });
+    }
+}
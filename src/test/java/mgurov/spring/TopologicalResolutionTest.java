@@ -0,0 +1,56 @@
+package mgurov.spring;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TopologicalResolutionTest {
+
+    @Test
+    public void reportAllTheCyclesAtOnce() {
+        Map<String, String> data = Maps.newLinkedHashMap();
+        data.put("a", "${b}");
+        data.put("b", "${a}");
+        data.put("self", "me and ${self}");
+        data.put("x", "${y}");
+        data.put("y", "${z}");
+        data.put("z", "${x} and ${a}");
+        data.put("innocent", "value");
+
+        try {
+            MapUtils.resolveValues(MapValuesResolutionAlgorithm.TOPOLOGICAL, data);
+            fail("cycles expected");
+        } catch (CircularReferenceException e) {
+            final Set<Set<String>> cycles = newHashSet();
+            for (List<String> cycle : e.getCycles()) {
+                cycles.add(ImmutableSet.copyOf(cycle));
+            }
+            assertEquals(
+                    ImmutableSet.of(ImmutableSet.of("a", "b"), ImmutableSet.of("self"), ImmutableSet.of("x", "y", "z")),
+                    cycles);
+        }
+    }
+
+    @Test
+    public void deepChainWithoutStackOverflow() {
+        final int depth = 100000;
+        Map<String, String> data = Maps.newLinkedHashMap();
+        for (int i = 0; i < depth; i++) {
+            data.put("key" + i, "${key" + (i + 1) + "}");
+        }
+        data.put("key" + depth, "bottom");
+
+        final Map<String, String> resolved = MapUtils.resolveValues(MapValuesResolutionAlgorithm.TOPOLOGICAL, data);
+
+        assertEquals(depth + 1, resolved.size());
+        assertEquals("bottom", resolved.get("key0"));
+    }
+}